@@ -1,15 +1,21 @@
 package com.bitsevn.transformer.controller;
 
 import com.bitsevn.transformer.model.TransformationConfig;
+import com.bitsevn.transformer.service.CompiledTransformationPlan;
 import com.bitsevn.transformer.service.ConfigurationService;
 import com.bitsevn.transformer.service.MongoConfigurationService;
+import com.bitsevn.transformer.service.TransformationEngine;
 import com.bitsevn.transformer.service.XmlToJsonTransformer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 
 @RestController
@@ -27,23 +33,59 @@ public class TransformerController {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    /**
+     * Transform XML to JSON without a configuration, converting the whole document with the
+     * schema-free subtree conversion and writing the JSON result directly to the response
+     */
+    @PostMapping("/generic/transform")
+    public ResponseEntity<StreamingResponseBody> transformXmlToGenericJson(InputStream xmlInput) {
+        StreamingResponseBody body = output -> {
+            try {
+                transformer.transformXmlToGenericJson(xmlInput, output);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Transformation failed: " + e.getMessage(), e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+    
     /**
      * Transform XML to JSON using a named configuration from files
      */
     @PostMapping("/transform/{configName}")
     public ResponseEntity<?> transformXmlToJson(
             @PathVariable String configName,
+            @RequestParam(required = false) String engine,
             @RequestBody String xmlInput) {
         try {
-            TransformationConfig config = configurationService.loadConfiguration(configName);
-            String jsonOutput = transformer.transformXmlToJson(xmlInput, config);
-            return ResponseEntity.ok(Map.of("result", objectMapper.readValue(jsonOutput, LinkedHashMap.class)));
+            CompiledTransformationPlan plan = configurationService.loadPlan(configName);
+            ObjectNode result = transformer.transformXmlToJsonNode(xmlInput, plan, TransformationEngine.fromName(engine));
+            return ResponseEntity.ok(Map.of("result", result));
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                     .body(Map.of("error", "Transformation failed: " + e.getMessage()));
         }
     }
     
+    /**
+     * Transform XML to JSON using a named configuration from files, streaming the request
+     * body through the transformer and writing the JSON result directly to the response
+     */
+    @PostMapping("/transform/{configName}/stream")
+    public ResponseEntity<StreamingResponseBody> streamXmlToJson(
+            @PathVariable String configName,
+            @RequestParam(required = false) String engine,
+            InputStream xmlInput) {
+        try {
+            CompiledTransformationPlan plan = configurationService.loadPlan(configName);
+            return streamingResponse(xmlInput, plan, streamingEngine(plan, engine));
+        } catch (Exception e) {
+            return streamingError(400, "Transformation failed: " + e.getMessage());
+        }
+    }
+    
     /**
      * Transform XML to JSON using inline configuration
      */
@@ -60,8 +102,9 @@ public class TransformerController {
             }
             
             TransformationConfig config = configurationService.loadConfigurationFromJson(jsonConfig);
-            String jsonOutput = transformer.transformXmlToJson(xmlInput, config);
-            return ResponseEntity.ok(Map.of("result", jsonOutput));
+            ObjectNode result = transformer.transformXmlToJsonNode(xmlInput, CompiledTransformationPlan.compile(config),
+                    TransformationEngine.fromName((String) request.get("engine")));
+            return ResponseEntity.ok(Map.of("result", result));
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                     .body(Map.of("error", "Transformation failed: " + e.getMessage()));
@@ -74,22 +117,167 @@ public class TransformerController {
     @PostMapping("/mongo/transform/{configName}")
     public ResponseEntity<?> transformXmlToJsonWithMongoConfig(
             @PathVariable String configName,
+            @RequestParam(required = false) String engine,
             @RequestBody String xmlInput) {
         try {
-            TransformationConfig config = mongoConfigurationService.loadConfiguration(configName);
-            if (config == null) {
+            CompiledTransformationPlan plan = mongoConfigurationService.loadPlan(configName);
+            if (plan == null) {
                 return ResponseEntity.status(404)
                         .body(Map.of("error", "Configuration '" + configName + "' not found in MongoDB"));
             }
             
-            String jsonOutput = transformer.transformXmlToJson(xmlInput, config);
+            ObjectNode result = transformer.transformXmlToJsonNode(xmlInput, plan, TransformationEngine.fromName(engine));
             return ResponseEntity.ok(Map.of(
                 "configName", configName,
-                "result", jsonOutput
+                "result", result
             ));
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                     .body(Map.of("error", "Transformation failed: " + e.getMessage()));
         }
     }
+    
+    /**
+     * Transform XML to JSON using MongoDB configuration, streaming the request body through
+     * the transformer and writing the JSON result directly to the response
+     */
+    @PostMapping("/mongo/transform/{configName}/stream")
+    public ResponseEntity<StreamingResponseBody> streamXmlToJsonWithMongoConfig(
+            @PathVariable String configName,
+            @RequestParam(required = false) String engine,
+            InputStream xmlInput) {
+        try {
+            CompiledTransformationPlan plan = mongoConfigurationService.loadPlan(configName);
+            if (plan == null) {
+                return streamingError(404, "Configuration '" + configName + "' not found in MongoDB");
+            }
+            
+            return streamingResponse(xmlInput, plan, streamingEngine(plan, engine));
+        } catch (Exception e) {
+            return streamingError(400, "Transformation failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Transformer runtime statistics
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<?> getTransformerStats() {
+        return ResponseEntity.ok(Map.of(
+            "documentBuilderPool", transformer.getDocumentBuilderPoolStats(),
+            "pathNavigation", transformer.getPathNavigationStats(),
+            "projection", transformer.getProjectionStats(),
+            "regex", transformer.getRegexStats()
+        ));
+    }
+    
+    /**
+     * Evaluation times of the XPath expressions of a named configuration
+     */
+    @GetMapping("/stats/xpath/{configName}")
+    public ResponseEntity<?> getXPathStats(@PathVariable String configName) {
+        try {
+            return xpathStats(configName, configurationService.loadPlan(configName));
+        } catch (Exception e) {
+            return ResponseEntity.status(404)
+                    .body(Map.of("error", "Configuration '" + configName + "' not found: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Evaluation times of the XPath expressions of a MongoDB configuration
+     */
+    @GetMapping("/mongo/stats/xpath/{configName}")
+    public ResponseEntity<?> getMongoXPathStats(@PathVariable String configName) {
+        try {
+            CompiledTransformationPlan plan = mongoConfigurationService.loadPlan(configName);
+            if (plan == null) {
+                return ResponseEntity.status(404)
+                        .body(Map.of("error", "Configuration '" + configName + "' not found in MongoDB"));
+            }
+            return xpathStats(configName, plan);
+        } catch (Exception e) {
+            return ResponseEntity.status(404)
+                    .body(Map.of("error", "Configuration '" + configName + "' not found: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Get per-mapping counters of values that could not be converted to their data type
+     */
+    @GetMapping("/stats/conversions/{configName}")
+    public ResponseEntity<?> getConversionStats(@PathVariable String configName) {
+        try {
+            return conversionStats(configName, configurationService.loadPlan(configName));
+        } catch (Exception e) {
+            return ResponseEntity.status(404)
+                    .body(Map.of("error", "Configuration '" + configName + "' not found: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Get per-mapping counters of values that could not be converted to their data type,
+     * for a MongoDB configuration
+     */
+    @GetMapping("/mongo/stats/conversions/{configName}")
+    public ResponseEntity<?> getMongoConversionStats(@PathVariable String configName) {
+        try {
+            CompiledTransformationPlan plan = mongoConfigurationService.loadPlan(configName);
+            if (plan == null) {
+                return ResponseEntity.status(404)
+                        .body(Map.of("error", "Configuration '" + configName + "' not found in MongoDB"));
+            }
+            return conversionStats(configName, plan);
+        } catch (Exception e) {
+            return ResponseEntity.status(404)
+                    .body(Map.of("error", "Configuration '" + configName + "' not found: " + e.getMessage()));
+        }
+    }
+    
+    private ResponseEntity<?> xpathStats(String configName, CompiledTransformationPlan plan) {
+        return ResponseEntity.ok(Map.of(
+            "configName", configName,
+            "version", String.valueOf(plan.getVersion()),
+            "expressions", plan.getXPathStats()
+        ));
+    }
+    
+    private ResponseEntity<?> conversionStats(String configName, CompiledTransformationPlan plan) {
+        return ResponseEntity.ok(Map.of(
+            "configName", configName,
+            "version", String.valueOf(plan.getVersion()),
+            "mappings", plan.getConversionStats()
+        ));
+    }
+    
+    /**
+     * Engine of a streaming request: the requested one, then the configuration's, then StAX,
+     * which reads the body as the response is written
+     */
+    private TransformationEngine streamingEngine(CompiledTransformationPlan plan, String engine) {
+        TransformationEngine requested = TransformationEngine.fromName(engine);
+        if (requested != null) {
+            return requested;
+        }
+        return plan.getEngine() != null ? plan.getEngine() : TransformationEngine.STAX;
+    }
+    
+    private ResponseEntity<StreamingResponseBody> streamingResponse(InputStream xmlInput, CompiledTransformationPlan plan,
+                                                                    TransformationEngine engine) {
+        StreamingResponseBody body = output -> {
+            try {
+                transformer.transformXmlToJson(xmlInput, plan, engine, output);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Transformation failed: " + e.getMessage(), e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+    
+    private ResponseEntity<StreamingResponseBody> streamingError(int status, String message) {
+        StreamingResponseBody body = output -> objectMapper.writeValue(output, Map.of("error", message));
+        return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 }
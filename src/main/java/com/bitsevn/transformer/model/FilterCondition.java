@@ -0,0 +1,58 @@
+package com.bitsevn.transformer.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class FilterCondition {
+
+    @JsonProperty("xmlField")
+    private String xmlField;
+
+    @JsonProperty("operator")
+    private String operator;
+
+    @JsonProperty("value")
+    private String value;
+
+    // Constructors
+    public FilterCondition() {}
+
+    public FilterCondition(String xmlField, String operator, String value) {
+        this.xmlField = xmlField;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    // Getters and Setters
+    public String getXmlField() {
+        return xmlField;
+    }
+
+    public void setXmlField(String xmlField) {
+        this.xmlField = xmlField;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public void setOperator(String operator) {
+        this.operator = operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "FilterCondition{" +
+                "xmlField='" + xmlField + '\'' +
+                ", operator='" + operator + '\'' +
+                ", value='" + value + '\'' +
+                '}';
+    }
+}
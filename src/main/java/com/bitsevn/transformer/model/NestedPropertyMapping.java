@@ -24,6 +24,9 @@ public class NestedPropertyMapping {
     @JsonProperty("transform")
     private String transform;
     
+    @JsonProperty("filters")
+    private List<FilterCondition> filters;
+    
     // Constructors
     public NestedPropertyMapping() {}
     
@@ -87,6 +90,14 @@ public class NestedPropertyMapping {
         this.transform = transform;
     }
     
+    public List<FilterCondition> getFilters() {
+        return filters;
+    }
+    
+    public void setFilters(List<FilterCondition> filters) {
+        this.filters = filters;
+    }
+    
     @Override
     public String toString() {
         return "NestedPropertyMapping{" +
@@ -96,6 +107,7 @@ public class NestedPropertyMapping {
                 ", dataType='" + dataType + '\'' +
                 ", defaultValue=" + defaultValue +
                 ", transform='" + transform + '\'' +
+                ", filters=" + filters +
                 '}';
     }
 }
@@ -19,6 +19,12 @@ public class PropertyFieldMapping {
     @JsonProperty("transform")
     private String transform;
     
+    @JsonProperty("datePattern")
+    private String datePattern;
+    
+    @JsonProperty("dateFormat")
+    private String dateFormat;
+    
     @JsonProperty("required")
     private boolean required;
     
@@ -77,6 +83,22 @@ public class PropertyFieldMapping {
         this.transform = transform;
     }
     
+    public String getDatePattern() {
+        return datePattern;
+    }
+    
+    public void setDatePattern(String datePattern) {
+        this.datePattern = datePattern;
+    }
+    
+    public String getDateFormat() {
+        return dateFormat;
+    }
+    
+    public void setDateFormat(String dateFormat) {
+        this.dateFormat = dateFormat;
+    }
+    
     public boolean isRequired() {
         return required;
     }
@@ -93,6 +115,8 @@ public class PropertyFieldMapping {
                 ", dataType='" + dataType + '\'' +
                 ", defaultValue=" + defaultValue +
                 ", transform='" + transform + '\'' +
+                ", datePattern='" + datePattern + '\'' +
+                ", dateFormat='" + dateFormat + '\'' +
                 ", required=" + required +
                 '}';
     }
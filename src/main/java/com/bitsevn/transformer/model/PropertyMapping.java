@@ -22,6 +22,15 @@ public class PropertyMapping {
     @JsonProperty("transform")
     private String transform;
     
+    @JsonProperty("datePattern")
+    private String datePattern;
+    
+    @JsonProperty("dateFormat")
+    private String dateFormat;
+    
+    @JsonProperty("xpath")
+    private boolean xpath;
+    
     // Constructors
     public PropertyMapping() {}
     
@@ -85,6 +94,30 @@ public class PropertyMapping {
         this.transform = transform;
     }
     
+    public String getDatePattern() {
+        return datePattern;
+    }
+    
+    public void setDatePattern(String datePattern) {
+        this.datePattern = datePattern;
+    }
+    
+    public String getDateFormat() {
+        return dateFormat;
+    }
+    
+    public void setDateFormat(String dateFormat) {
+        this.dateFormat = dateFormat;
+    }
+    
+    public boolean isXpath() {
+        return xpath;
+    }
+    
+    public void setXpath(boolean xpath) {
+        this.xpath = xpath;
+    }
+    
     @Override
     public String toString() {
         return "PropertyMapping{" +
@@ -94,6 +127,9 @@ public class PropertyMapping {
                 ", defaultValue='" + defaultValue + '\'' +
                 ", required=" + required +
                 ", transform='" + transform + '\'' +
+                ", datePattern='" + datePattern + '\'' +
+                ", dateFormat='" + dateFormat + '\'' +
+                ", xpath=" + xpath +
                 '}';
     }
 }
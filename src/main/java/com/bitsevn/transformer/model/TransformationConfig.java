@@ -34,6 +34,9 @@ public class TransformationConfig {
     @JsonProperty("transformations")
     private Map<String, String> transformations;
     
+    @JsonProperty("engine")
+    private String engine;
+    
     // Constructors
     public TransformationConfig() {}
     
@@ -110,6 +113,14 @@ public class TransformationConfig {
         this.transformations = transformations;
     }
     
+    public String getEngine() {
+        return engine;
+    }
+    
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+    
     @Override
     public String toString() {
         return "TransformationConfig{" +
@@ -122,6 +133,7 @@ public class TransformationConfig {
                 ", typeConversions=" + typeConversions +
                 ", defaultValues=" + defaultValues +
                 ", transformations=" + transformations +
+                ", engine='" + engine + '\'' +
                 '}';
     }
 }
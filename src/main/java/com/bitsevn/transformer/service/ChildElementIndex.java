@@ -0,0 +1,167 @@
+package com.bitsevn.transformer.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Lazily built index of a document's elements: the element children of an element
+ * grouped by name.
+ *
+ * The children of an element are grouped the first time it is looked up and kept for
+ * the life of the index, so every later field lookup on the element is a map lookup,
+ * whatever the number of fields and mappings reading it. Names are node names as
+ * written in the document (prefix included). The index assumes the document is not
+ * modified while it is in use and is not thread safe; a transformation owns it.
+ */
+final class ChildElementIndex {
+
+    private static final String USER_DATA_KEY = ChildElementIndex.class.getName();
+
+    private final Map<Node, Map<String, List<Element>>> childrenByName = new IdentityHashMap<>();
+
+    /**
+     * Create an index for a document and attach it, so that of(node) finds it for any node of the document
+     */
+    static ChildElementIndex attach(Document document) {
+        ChildElementIndex index = new ChildElementIndex();
+        document.setUserData(USER_DATA_KEY, index, null);
+        return index;
+    }
+
+    /**
+     * The index attached to the document of a node, or a new index private to the caller
+     * when none is attached
+     */
+    static ChildElementIndex of(Node node) {
+        Document document = node.getNodeType() == Node.DOCUMENT_NODE ? (Document) node : node.getOwnerDocument();
+        Object index = document != null ? document.getUserData(USER_DATA_KEY) : null;
+        return index instanceof ChildElementIndex ? (ChildElementIndex) index : new ChildElementIndex();
+    }
+
+    /**
+     * Element children of a node grouped by name, in order of the first child of each name
+     */
+    Map<String, List<Element>> childrenByName(Node parent) {
+        Map<String, List<Element>> groups = childrenByName.get(parent);
+        if (groups == null) {
+            groups = groupChildren(parent);
+            childrenByName.put(parent, groups);
+        }
+        return groups;
+    }
+
+    /**
+     * Group the element children of a node by name without recording them in an index,
+     * for nodes that are visited once such as the content of a converted element
+     */
+    static Map<String, List<Element>> groupChildren(Node parent) {
+        Map<String, List<Element>> groups = new LinkedHashMap<>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                groups.computeIfAbsent(child.getNodeName(), name -> new ArrayList<>(1)).add((Element) child);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Element children of a node with the given name, in document order
+     */
+    List<Element> children(Node parent, String name) {
+        List<Element> children = childrenByName(parent).get(name);
+        return children != null ? children : Collections.emptyList();
+    }
+
+    /**
+     * Element reached by following a path from a node, one child step at a time: each
+     * step selects the first (or indexed) child element with its name, "*" any name, and
+     * a "//" step the first (or indexed) such descendant in document order.
+     * Returns null when a step has no such element.
+     */
+    Element select(Node from, CompiledPath path) {
+        if (!path.isValid()) {
+            return null;
+        }
+        Node current = from;
+        for (int step = 0; step < path.length() && current != null; step++) {
+            current = path.isDescendant(step)
+                    ? descendant(current, path.name(step), Math.max(path.index(step), 0))
+                    : child(current, path.name(step), Math.max(path.index(step), 0));
+        }
+        return (Element) current;
+    }
+
+    /**
+     * Attribute value or own text an attribute or text() path selects on an element;
+     * null when the element has no such attribute or no text of its own
+     */
+    static String targetValue(Element element, CompiledPath path) {
+        if (path.target() == CompiledPath.Target.ATTRIBUTE) {
+            Attr attribute = element.getAttributeNode(path.attributeName());
+            return attribute != null ? attribute.getValue() : null;
+        }
+        return ownText(element);
+    }
+
+    /**
+     * Text and CDATA children of an element joined, without the text of its descendants;
+     * null when it has none
+     */
+    static String ownText(Element element) {
+        StringBuilder text = null;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                text.append(child.getNodeValue());
+            }
+        }
+        return text != null ? text.toString() : null;
+    }
+
+    private Element child(Node parent, String name, int position) {
+        if ("*".equals(name)) {
+            int seen = 0;
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && seen++ == position) {
+                    return (Element) child;
+                }
+            }
+            return null;
+        }
+        List<Element> children = children(parent, name);
+        return position < children.size() ? children.get(position) : null;
+    }
+
+    private static Element descendant(Node parent, String name, int position) {
+        int seen = 0;
+        Node node = parent.getFirstChild();
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                if (("*".equals(name) || name.equals(node.getNodeName())) && seen++ == position) {
+                    return (Element) node;
+                }
+                if (node.getFirstChild() != null) {
+                    node = node.getFirstChild();
+                    continue;
+                }
+            }
+            // Move to the next node in document order without leaving the subtree of parent
+            while (node != parent && node.getNextSibling() == null) {
+                node = node.getParentNode();
+            }
+            node = node == parent ? null : node.getNextSibling();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,188 @@
+package com.bitsevn.transformer.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pre-split form of an xmlPath such as "order/items/item[0]", "order//lineItem" or
+ * "order/@orderId".
+ *
+ * A leading "/" is ignored and "name[n]" selects the n-th match. The first step is
+ * resolved against the whole document, every later step against the children of the
+ * element selected by the previous one, or against all its descendants when it follows
+ * "//". "*" matches an element of any name. A last step of
+ * "@name" selects the attribute of that name and "text()" the own text of the elements
+ * the element steps select; these are resolved on the element itself, without looking
+ * at its subtree. Paths with a malformed index, or an attribute or text() step that is
+ * not the last one, never match.
+ */
+final class CompiledPath {
+
+    /**
+     * What a path selects on the elements its element steps reach
+     */
+    enum Target { ELEMENT, ATTRIBUTE, TEXT }
+
+    private static final String TEXT_STEP = "text()";
+
+    private static final CompiledPath INVALID = new CompiledPath(null, new String[0], new int[0], new boolean[0],
+            Target.ELEMENT, null);
+
+    private final String source;
+    private final String[] names;
+    private final int[] indexes;
+    private final boolean[] descendant;
+    private final Target target;
+    private final String attributeName;
+
+    private CompiledPath(String source, String[] names, int[] indexes, boolean[] descendant, Target target,
+                         String attributeName) {
+        this.source = source;
+        this.names = names;
+        this.indexes = indexes;
+        this.descendant = descendant;
+        this.target = target;
+        this.attributeName = attributeName;
+    }
+
+    static CompiledPath compile(String xmlPath) {
+        if (xmlPath == null) {
+            return INVALID;
+        }
+        String path = xmlPath.startsWith("/") ? xmlPath.substring(1) : xmlPath;
+        String[] parts = path.split("/");
+
+        // An empty step ("//") makes the step after it a descendant step
+        List<String> steps = new ArrayList<>();
+        List<Boolean> descendantSteps = new ArrayList<>();
+        boolean afterEmptyStep = false;
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (parts[i].isEmpty()) {
+                afterEmptyStep = true;
+            } else {
+                steps.add(parts[i]);
+                descendantSteps.add(afterEmptyStep);
+                afterEmptyStep = false;
+            }
+        }
+        steps.add(parts[parts.length - 1]);
+        descendantSteps.add(afterEmptyStep);
+
+        // A trailing attribute or text() step is resolved on the element, not matched as a step
+        Target target = Target.ELEMENT;
+        String attributeName = null;
+        String last = steps.get(steps.size() - 1);
+        if (last.startsWith("@")) {
+            attributeName = last.substring(1);
+            if (attributeName.isEmpty()) {
+                return INVALID;
+            }
+            target = Target.ATTRIBUTE;
+        } else if (TEXT_STEP.equals(last)) {
+            target = Target.TEXT;
+        }
+        if (target != Target.ELEMENT) {
+            if (descendantSteps.get(steps.size() - 1)) {
+                // "order//@id" would select attributes of descendants, which is not supported
+                return INVALID;
+            }
+            steps.remove(steps.size() - 1);
+            descendantSteps.remove(descendantSteps.size() - 1);
+        }
+
+        String[] names = new String[steps.size()];
+        int[] indexes = new int[steps.size()];
+        boolean[] descendant = new boolean[steps.size()];
+        try {
+            for (int i = 0; i < steps.size(); i++) {
+                String step = steps.get(i);
+                descendant[i] = descendantSteps.get(i);
+                if (step.startsWith("@") || TEXT_STEP.equals(step)) {
+                    return INVALID;
+                }
+                if (step.contains("[")) {
+                    names[i] = step.substring(0, step.indexOf("["));
+                    indexes[i] = Integer.parseInt(step.substring(step.indexOf("[") + 1, step.indexOf("]")));
+                    if (indexes[i] < 0) {
+                        return INVALID;
+                    }
+                } else {
+                    names[i] = step;
+                    indexes[i] = -1;
+                }
+            }
+        } catch (RuntimeException e) {
+            return INVALID;
+        }
+        return new CompiledPath(xmlPath, names, indexes, descendant, target, attributeName);
+    }
+
+    static CompiledPath invalid() {
+        return INVALID;
+    }
+
+    boolean isValid() {
+        return names.length > 0 || target != Target.ELEMENT;
+    }
+
+    /**
+     * Whether the path selects elements, rather than an attribute or the text of the
+     * elements its steps reach
+     */
+    boolean selectsElements() {
+        return target == Target.ELEMENT;
+    }
+
+    Target target() {
+        return target;
+    }
+
+    /**
+     * Qualified name of the attribute an "@name" path selects, otherwise null
+     */
+    String attributeName() {
+        return attributeName;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * Number of element steps; a trailing attribute or text() step is not counted
+     */
+    int length() {
+        return names.length;
+    }
+
+    /**
+     * Element name of a step; "*" matches any element
+     */
+    String name(int step) {
+        return names[step];
+    }
+
+    /**
+     * Zero-based position selected by a step, or -1 when the step has no index
+     */
+    int index(int step) {
+        return indexes[step];
+    }
+
+    /**
+     * Whether a step follows "//" and so matches any descendant of the element selected
+     * by the previous step, not only its children
+     */
+    boolean isDescendant(int step) {
+        return descendant[step];
+    }
+
+    boolean matchesName(int step, String elementName) {
+        return "*".equals(names[step]) || names[step].equals(elementName);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
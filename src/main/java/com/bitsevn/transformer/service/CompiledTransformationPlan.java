@@ -0,0 +1,531 @@
+package com.bitsevn.transformer.service;
+
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+import com.bitsevn.transformer.model.NestedPropertyMapping;
+import com.bitsevn.transformer.model.PropertyFieldMapping;
+import com.bitsevn.transformer.model.PropertyMapping;
+import com.bitsevn.transformer.model.TransformationConfig;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Immutable execution plan compiled once from a TransformationConfig.
+ *
+ * Paths are pre-split and merged into a PathTrie, transformation rules are compiled to
+ * functions once per configuration, data type converters are resolved, complex array property lists are parsed and default values
+ * are converted up front, so transforming a document does no configuration string
+ * parsing and visits each element once whatever the number of mappings. A plan is safe to
+ * share between threads and is cached next to its configuration by the configuration
+ * services.
+ *
+ * Property mappings in XPath mode are compiled to XPath expressions instead of trie
+ * paths. Each distinct expression is compiled once per plan, that is once per version of
+ * the configuration, and keeps its own evaluation timings.
+ */
+public final class CompiledTransformationPlan {
+
+    private final TransformationConfig config;
+    private final TransformationEngine engine;
+    private final List<PropertyRule> propertyRules;
+    private final List<ArrayRule> arrayRules;
+    private final List<NestedRule> nestedRules;
+    private final PathTrie pathTrie;
+    private final JsonOutputLayout outputLayout;
+    private final Map<String, CompiledXPath> xpathExpressions;
+    private final ItemFilter[] itemFilters;
+
+    private CompiledTransformationPlan(TransformationConfig config) {
+        this.config = config;
+        this.engine = TransformationEngine.fromName(config.getEngine());
+        PathTrie.Builder paths = new PathTrie.Builder();
+        Map<String, CompiledXPath> expressions = new LinkedHashMap<>();
+        TransformFunctions transforms = TransformFunctions.compile(config.getTransformations());
+        Map<String, DateTimeFormatter> dateFormatters = new HashMap<>();
+
+        List<PropertyRule> properties = new ArrayList<>();
+        if (config.getPropertyMappings() != null) {
+            for (PropertyMapping mapping : config.getPropertyMappings()) {
+                properties.add(new PropertyRule(mapping, config, transforms, dateFormatters, paths, expressions));
+            }
+        }
+
+        List<ArrayRule> arrays = new ArrayList<>();
+        if (config.getArrayMappings() != null) {
+            for (Map.Entry<String, String> arrayMapping : config.getArrayMappings().entrySet()) {
+                arrays.add(new ArrayRule(arrayMapping.getKey(), arrayMapping.getValue(), paths));
+            }
+        }
+
+        List<NestedRule> nested = new ArrayList<>();
+        if (config.getNestedPropertyMappings() != null) {
+            for (NestedPropertyMapping nestedMapping : config.getNestedPropertyMappings()) {
+                nested.add(new NestedRule(nestedMapping, transforms, dateFormatters, paths));
+            }
+        }
+
+        this.propertyRules = Collections.unmodifiableList(properties);
+        this.arrayRules = Collections.unmodifiableList(arrays);
+        this.nestedRules = Collections.unmodifiableList(nested);
+        this.pathTrie = paths.build();
+        this.xpathExpressions = Collections.unmodifiableMap(expressions);
+
+        this.itemFilters = new ItemFilter[pathTrie.pathCount()];
+        arrays.forEach(rule -> itemFilters[rule.pathId] = rule.filter);
+        nested.forEach(rule -> itemFilters[rule.pathId] = rule.filter);
+
+        List<String[]> slotPaths = new ArrayList<>();
+        properties.forEach(rule -> slotPaths.add(rule.jsonPath));
+        arrays.forEach(rule -> slotPaths.add(rule.jsonPath));
+        nested.forEach(rule -> slotPaths.add(rule.jsonPath));
+        this.outputLayout = JsonOutputLayout.plan(slotPaths);
+    }
+
+    /**
+     * Compile a configuration into an execution plan
+     */
+    public static CompiledTransformationPlan compile(TransformationConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("Transformation configuration is required");
+        }
+        return new CompiledTransformationPlan(config);
+    }
+
+    public TransformationConfig getConfig() {
+        return config;
+    }
+
+    public String getName() {
+        return config.getName();
+    }
+
+    public String getVersion() {
+        return config.getVersion();
+    }
+
+    /**
+     * Engine requested by the configuration, or null when it does not specify one
+     */
+    public TransformationEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Whether any property mapping is evaluated with XPath, which needs the parsed document
+     */
+    public boolean hasXPathMappings() {
+        return !xpathExpressions.isEmpty();
+    }
+
+    /**
+     * Evaluation counters of every XPath expression of the plan, in mapping order
+     */
+    public List<Map<String, Object>> getXPathStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (CompiledXPath expression : xpathExpressions.values()) {
+            stats.add(expression.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Conversion counters of every property and nested field with a data type, in mapping
+     * order: how many values could not be converted and were kept as text
+     */
+    public List<Map<String, Object>> getConversionStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (PropertyRule rule : propertyRules) {
+            if (rule.converter != ValueConverter.STRING) {
+                stats.add(conversionStats(rule.mapping.getJsonPath(), rule.mapping.getDataType(), rule.conversionFallbacks));
+            }
+        }
+        for (NestedRule rule : nestedRules) {
+            for (FieldRule field : rule.fields) {
+                if (field.converter != ValueConverter.STRING) {
+                    stats.add(conversionStats(rule.mapping.getJsonPath() + "." + String.join(".", field.jsonField),
+                            field.dataType, field.conversionFallbacks));
+                }
+            }
+        }
+        return stats;
+    }
+
+    private static Map<String, Object> conversionStats(String jsonPath, String dataType, LongAdder fallbacks) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("jsonPath", jsonPath);
+        stats.put("dataType", dataType);
+        stats.put("fallbacks", fallbacks.sum());
+        return stats;
+    }
+
+    List<PropertyRule> getPropertyRules() {
+        return propertyRules;
+    }
+
+    List<ArrayRule> getArrayRules() {
+        return arrayRules;
+    }
+
+    List<NestedRule> getNestedRules() {
+        return nestedRules;
+    }
+
+    /**
+     * Trie of all rule paths; each rule's pathId identifies its path in the trie
+     */
+    PathTrie getPathTrie() {
+        return pathTrie;
+    }
+
+    /**
+     * Filter the elements selected by a path must pass to become items, or null
+     */
+    ItemFilter getItemFilter(int pathId) {
+        return itemFilters[pathId];
+    }
+
+    /**
+     * Layout of the output object; slots are numbered property rules first, then array
+     * rules, then nested rules
+     */
+    JsonOutputLayout getOutputLayout() {
+        return outputLayout;
+    }
+
+    /**
+     * Parse property mappings string into a map
+     * Format: "prop1:jsonProp1,prop2:jsonProp2"
+     */
+    static Map<String, String> parsePropertyMappings(String propertyMappings) {
+        Map<String, String> mappings = new HashMap<>();
+
+        if (propertyMappings == null || propertyMappings.trim().isEmpty()) {
+            return mappings;
+        }
+
+        String[] pairs = propertyMappings.split(",");
+        for (String pair : pairs) {
+            String[] keyValue = pair.trim().split(":");
+            if (keyValue.length == 2) {
+                mappings.put(keyValue[0].trim(), keyValue[1].trim());
+            }
+        }
+
+        return mappings;
+    }
+
+    /**
+     * Layout of the fields of an item object, with one slot per field
+     */
+    private static JsonOutputLayout fieldLayout(List<FieldRule> fields) {
+        List<String[]> fieldPaths = new ArrayList<>();
+        for (FieldRule field : fields) {
+            fieldPaths.add(field.jsonField);
+        }
+        return JsonOutputLayout.plan(fieldPaths);
+    }
+
+    /**
+     * Split a dot notation jsonPath into its field names
+     */
+    static String[] splitJsonPath(String jsonPath) {
+        return jsonPath == null ? null : jsonPath.split("\\.");
+    }
+
+    /**
+     * Compiled PropertyMapping: the first element its path selects becomes a single value.
+     * In XPath mode the path never matches and the value is the string value of xpath.
+     */
+    static final class PropertyRule {
+        final PropertyMapping mapping;
+        final CompiledPath xmlPath;
+        final CompiledXPath xpath;
+        final int pathId;
+        final String[] jsonPath;
+        final UnaryOperator<String> transform;
+        final Conversion converter;
+        final Object defaultValue;
+        // Values that could not be converted to the data type and were kept as text
+        final LongAdder conversionFallbacks = new LongAdder();
+
+        private PropertyRule(PropertyMapping mapping, TransformationConfig config, TransformFunctions transforms,
+                             Map<String, DateTimeFormatter> dateFormatters, PathTrie.Builder paths,
+                             Map<String, CompiledXPath> expressions) {
+            this.mapping = mapping;
+            if (mapping.isXpath() && mapping.getXmlPath() != null) {
+                this.xmlPath = CompiledPath.invalid();
+                this.xpath = expressions.computeIfAbsent(mapping.getXmlPath(), CompiledXPath::new);
+            } else {
+                this.xmlPath = CompiledPath.compile(mapping.getXmlPath());
+                this.xpath = null;
+            }
+            this.pathId = paths.add(xmlPath);
+            this.jsonPath = splitJsonPath(mapping.getJsonPath());
+            this.converter = DateConversion.forMapping(mapping.getDataType(), mapping.getDatePattern(),
+                    mapping.getDateFormat(), dateFormatters);
+
+            this.transform = transforms.forMapping(mapping.getTransform());
+
+            if (mapping.getDefaultValue() != null) {
+                this.defaultValue = converter.convert(mapping.getDefaultValue());
+            } else if (config.getDefaultValues() != null && config.getDefaultValues().containsKey(mapping.getJsonPath())) {
+                this.defaultValue = config.getDefaultValues().get(mapping.getJsonPath());
+            } else {
+                this.defaultValue = null;
+            }
+        }
+
+        /**
+         * Turn the raw text selected by the mapping into its JSON value,
+         * applying default value, transformation and data type conversion
+         */
+        Object resolve(String value) {
+            return value(transformed(value));
+        }
+
+        /**
+         * JSON value of transformed text, or the default value when the text is null
+         */
+        Object value(String text) {
+            return text != null ? convert(converter, text, conversionFallbacks) : defaultValue;
+        }
+
+        /**
+         * Text to convert after the transformation, or null when the default value applies
+         */
+        String transformed(String value) {
+            return CompiledTransformationPlan.transformed(value, transform);
+        }
+
+        /**
+         * Write the value of transformed text without creating it
+         */
+        void write(JsonGenerator generator, String text) throws IOException {
+            CompiledTransformationPlan.write(generator, converter, text, conversionFallbacks);
+        }
+    }
+
+    /**
+     * Compiled arrayMappings entry, either a plain path or "path|prop1:jsonProp1,prop2:jsonProp2",
+     * optionally followed by item filters: "path|prop1:jsonProp1|field=value,field>value"
+     */
+    static final class ArrayRule {
+
+        enum Kind { SIMPLE, COMPLEX, INVALID }
+
+        final String source;
+        final CompiledPath xmlPath;
+        final int pathId;
+        final String[] jsonPath;
+        final Kind kind;
+        final List<FieldRule> fields;
+        // Layout of the fields within an item object
+        final JsonOutputLayout fieldLayout;
+        final ItemFilter filter;
+
+        private ArrayRule(String source, String jsonPath, PathTrie.Builder paths) {
+            this.source = source;
+            this.jsonPath = splitJsonPath(jsonPath);
+
+            if (!source.contains("|")) {
+                this.kind = Kind.SIMPLE;
+                this.xmlPath = CompiledPath.compile(source);
+                this.pathId = paths.add(xmlPath);
+                this.fields = Collections.emptyList();
+                this.fieldLayout = fieldLayout(fields);
+                this.filter = null;
+                return;
+            }
+
+            String[] parts = source.split("\\|");
+            if (parts.length != 2 && parts.length != 3) {
+                System.err.println("Invalid complex XML path format: " + source);
+                this.kind = Kind.INVALID;
+                this.xmlPath = CompiledPath.invalid();
+                this.pathId = paths.add(xmlPath);
+                this.fields = Collections.emptyList();
+                this.fieldLayout = fieldLayout(fields);
+                this.filter = null;
+                return;
+            }
+
+            // Keep the iteration order of the parsed map, which decides the field order of the items
+            List<FieldRule> fieldRules = new ArrayList<>();
+            for (Map.Entry<String, String> property : parsePropertyMappings(parts[1]).entrySet()) {
+                fieldRules.add(new FieldRule(property.getKey(), property.getValue()));
+            }
+            CompiledPath itemPath = CompiledPath.compile(parts[0]);
+            if (!itemPath.selectsElements()) {
+                // Item fields are read from elements, an attribute or text has none
+                System.err.println("Complex XML path must select elements: " + source);
+                this.kind = Kind.INVALID;
+                this.xmlPath = CompiledPath.invalid();
+                this.pathId = paths.add(xmlPath);
+                this.fields = Collections.emptyList();
+                this.fieldLayout = fieldLayout(fields);
+                this.filter = null;
+                return;
+            }
+            this.kind = Kind.COMPLEX;
+            this.xmlPath = itemPath;
+            this.pathId = paths.add(xmlPath);
+            this.fields = Collections.unmodifiableList(fieldRules);
+            this.fieldLayout = fieldLayout(fields);
+            this.filter = parts.length == 3 ? ItemFilter.parse(parts[2]) : null;
+        }
+    }
+
+    /**
+     * Compiled NestedPropertyMapping: every selected element that passes its filters
+     * becomes an object built from its fields
+     */
+    static final class NestedRule {
+        final NestedPropertyMapping mapping;
+        final CompiledPath xmlPath;
+        final int pathId;
+        final String[] jsonPath;
+        final List<FieldRule> fields;
+        // Layout of the fields within an item object
+        final JsonOutputLayout fieldLayout;
+        final ItemFilter filter;
+
+        private NestedRule(NestedPropertyMapping mapping, TransformFunctions transforms,
+                           Map<String, DateTimeFormatter> dateFormatters, PathTrie.Builder paths) {
+            this.mapping = mapping;
+            CompiledPath itemPath = CompiledPath.compile(mapping.getXmlPath());
+            if (!itemPath.selectsElements()) {
+                System.err.println("Nested property XML path must select elements: " + mapping.getXmlPath());
+                itemPath = CompiledPath.invalid();
+            }
+            this.xmlPath = itemPath;
+            this.pathId = paths.add(xmlPath);
+            this.jsonPath = splitJsonPath(mapping.getJsonPath());
+
+            List<FieldRule> fieldRules = new ArrayList<>();
+            if (mapping.getProperties() != null) {
+                for (PropertyFieldMapping fieldMapping : mapping.getProperties()) {
+                    fieldRules.add(new FieldRule(fieldMapping, transforms, dateFormatters));
+                }
+            }
+            this.fields = Collections.unmodifiableList(fieldRules);
+            this.fieldLayout = fieldLayout(fields);
+            this.filter = ItemFilter.compile(mapping.getFilters());
+        }
+    }
+
+    /**
+     * Compiled field of an array item, read relative to the item element. Every step of
+     * xmlFieldPath selects a direct child, so "personalInfo/email" reads the email child of
+     * the item's personalInfo child and never a same-named element deeper in the item.
+     * "@type" reads an attribute of the item and "address/@type" one of its address child.
+     */
+    static final class FieldRule {
+        final String xmlField;
+        final CompiledPath xmlFieldPath;
+        final String[] jsonField;
+        final String dataType;
+        final UnaryOperator<String> transform;
+        final Conversion converter;
+        final Object defaultValue;
+        final LongAdder conversionFallbacks = new LongAdder();
+
+        /**
+         * Field of a complex array mapping, copied without conversion
+         */
+        private FieldRule(String xmlField, String jsonField) {
+            this.xmlField = xmlField;
+            this.xmlFieldPath = CompiledPath.compile(xmlField);
+            this.jsonField = splitJsonPath(jsonField);
+            this.dataType = null;
+            this.transform = null;
+            this.converter = ValueConverter.STRING;
+            this.defaultValue = null;
+        }
+
+        /**
+         * Field of a nested property mapping, honoring dataType, transform and defaultValue
+         */
+        private FieldRule(PropertyFieldMapping fieldMapping, TransformFunctions transforms,
+                          Map<String, DateTimeFormatter> dateFormatters) {
+            this.xmlField = fieldMapping.getXmlField();
+            this.xmlFieldPath = CompiledPath.compile(xmlField);
+            this.jsonField = splitJsonPath(fieldMapping.getJsonField());
+            this.dataType = fieldMapping.getDataType();
+            this.converter = DateConversion.forMapping(fieldMapping.getDataType(), fieldMapping.getDatePattern(),
+                    fieldMapping.getDateFormat(), dateFormatters);
+
+            this.transform = transforms.forField(fieldMapping.getTransform());
+
+            Object def = fieldMapping.getDefaultValue();
+            this.defaultValue = def != null ? converter.convert(def.toString()) : null;
+        }
+
+        /**
+         * Value written for the field, or null when nothing should be written
+         */
+        Object resolve(String value) {
+            return value(transformed(value));
+        }
+
+        /**
+         * JSON value of transformed text, or the default value when the text is null
+         */
+        Object value(String text) {
+            return text != null ? convert(converter, text, conversionFallbacks) : defaultValue;
+        }
+
+        /**
+         * Text to convert after the transformation, or null when the default value applies
+         */
+        String transformed(String value) {
+            return CompiledTransformationPlan.transformed(value, transform);
+        }
+
+        /**
+         * Write the value of transformed text without creating it
+         */
+        void write(JsonGenerator generator, String text) throws IOException {
+            CompiledTransformationPlan.write(generator, converter, text, conversionFallbacks);
+        }
+    }
+
+    /**
+     * Value converted to the data type, or the text itself, counted as a fallback, when
+     * it cannot be converted
+     */
+    private static Object convert(Conversion converter, String value, LongAdder fallbacks) {
+        Object converted = converter.parse(value);
+        if (converted == null) {
+            fallbacks.increment();
+            return value;
+        }
+        return converted;
+    }
+
+    private static String transformed(String value, UnaryOperator<String> transform) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        return transform != null ? transform.apply(value) : value;
+    }
+
+    /**
+     * Write text converted to the data type, or the text itself, counted as a fallback,
+     * when it cannot be converted
+     */
+    private static void write(JsonGenerator generator, Conversion converter, String text, LongAdder fallbacks)
+            throws IOException {
+        if (!converter.write(generator, text)) {
+            fallbacks.increment();
+            generator.writeString(text);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.bitsevn.transformer.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+
+/**
+ * XPath 1.0 expression of a property mapping in XPath mode, compiled with javax.xml.xpath.
+ *
+ * The expression is compiled when the plan is compiled, so a malformed one is reported
+ * once and never evaluated. A compiled XPathExpression is not thread safe, so an
+ * evaluation takes a copy from a small pool kept with the plan, compiling one when none is
+ * idle, and gives it back afterwards; copies go away with the plan when it is replaced. The
+ * result is the XPath string value: the text of the first selected node, or the value of
+ * a function call such as count() or concat(). Evaluation time is recorded per expression.
+ */
+final class CompiledXPath {
+
+    // Idle compiled copies kept for reuse; more are compiled while all are in use
+    static final int MAX_IDLE = 8;
+
+    private final String expression;
+    private final boolean valid;
+    private final ConcurrentLinkedQueue<XPathExpression> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder evaluationNanos = new LongAdder();
+    private final LongAccumulator maxEvaluationNanos = new LongAccumulator(Math::max, 0);
+
+    CompiledXPath(String expression) {
+        this.expression = expression;
+
+        XPathExpression first = null;
+        try {
+            first = XPathFactory.newInstance().newXPath().compile(expression);
+        } catch (XPathExpressionException | RuntimeException e) {
+            System.err.println("Invalid XPath expression " + expression + ": " + e.getMessage());
+        }
+        this.valid = first != null;
+        if (valid) {
+            release(first);
+        }
+    }
+
+    String getExpression() {
+        return expression;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * String value of the expression evaluated against a document; null when the
+     * expression is invalid or its evaluation fails
+     */
+    String evaluate(Document document) {
+        if (!valid) {
+            return null;
+        }
+        long start = System.nanoTime();
+        XPathExpression compiled = null;
+        try {
+            compiled = acquire();
+            return (String) compiled.evaluate(document, XPathConstants.STRING);
+        } catch (XPathExpressionException | RuntimeException e) {
+            failures.increment();
+            return null;
+        } finally {
+            if (compiled != null) {
+                release(compiled);
+            }
+            long elapsed = System.nanoTime() - start;
+            evaluations.increment();
+            evaluationNanos.add(elapsed);
+            maxEvaluationNanos.accumulate(elapsed);
+        }
+    }
+
+    /**
+     * Evaluation counters of the expression
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long count = evaluations.sum();
+        long nanos = evaluationNanos.sum();
+        stats.put("expression", expression);
+        stats.put("valid", valid);
+        stats.put("evaluations", count);
+        stats.put("failures", failures.sum());
+        stats.put("totalMicros", TimeUnit.NANOSECONDS.toMicros(nanos));
+        stats.put("averageMicros", count > 0 ? TimeUnit.NANOSECONDS.toMicros(nanos / count) : 0);
+        stats.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxEvaluationNanos.get()));
+        return stats;
+    }
+
+    private XPathExpression acquire() throws XPathExpressionException {
+        XPathExpression compiled = idle.poll();
+        if (compiled != null) {
+            idleCount.decrementAndGet();
+            return compiled;
+        }
+        // Compiled once already when the plan was built, so this does not fail
+        return XPathFactory.newInstance().newXPath().compile(expression);
+    }
+
+    private void release(XPathExpression compiled) {
+        if (idleCount.incrementAndGet() > MAX_IDLE) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(compiled);
+    }
+}
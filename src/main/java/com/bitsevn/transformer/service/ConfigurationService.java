@@ -19,10 +19,12 @@ public class ConfigurationService {
     
     private final ObjectMapper objectMapper;
     private final Map<String, TransformationConfig> configCache;
+    private final Map<String, CompiledTransformationPlan> planCache;
     
     public ConfigurationService() {
         this.objectMapper = new ObjectMapper();
         this.configCache = new ConcurrentHashMap<>();
+        this.planCache = new ConcurrentHashMap<>();
     }
     
     /**
@@ -47,6 +49,20 @@ public class ConfigurationService {
         }
     }
     
+    /**
+     * Load the compiled execution plan of a configuration; plans are cached alongside
+     * their configuration and recompiled whenever the cached configuration is replaced
+     */
+    public CompiledTransformationPlan loadPlan(String configName) throws IOException {
+        TransformationConfig config = loadConfiguration(configName);
+        CompiledTransformationPlan plan = planCache.get(configName);
+        if (plan == null || plan.getConfig() != config) {
+            plan = CompiledTransformationPlan.compile(config);
+            planCache.put(configName, plan);
+        }
+        return plan;
+    }
+    
     /**
      * Load transformation configuration from JSON string
      */
@@ -82,6 +98,7 @@ public class ConfigurationService {
      */
     public void removeCachedConfiguration(String name) {
         configCache.remove(name);
+        planCache.remove(name);
     }
     
     /**
@@ -89,6 +106,7 @@ public class ConfigurationService {
      */
     public void clearCache() {
         configCache.clear();
+        planCache.clear();
     }
     
     /**
@@ -0,0 +1,31 @@
+package com.bitsevn.transformer.service;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Conversion of XML text to the JSON value of a mapping's data type, resolved once per
+ * mapping when its plan is compiled
+ */
+interface Conversion {
+
+    /**
+     * Parse text to the data type; null when it is malformed
+     */
+    Object parse(String value);
+
+    /**
+     * Write text converted to the data type; writes nothing and returns false when it is malformed
+     */
+    boolean write(JsonGenerator generator, String value) throws IOException;
+
+    /**
+     * Convert string value to the data type
+     */
+    default Object convert(String value) {
+        Object converted = parse(value);
+        // Return original value if conversion fails
+        return converted != null ? converted : value;
+    }
+}
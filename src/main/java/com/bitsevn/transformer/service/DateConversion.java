@@ -0,0 +1,228 @@
+package com.bitsevn.transformer.service;
+
+import java.io.IOException;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Conversion of a date or datetime mapping with a "datePattern" or "dateFormat".
+ *
+ * The datePattern is how values are read: a DateTimeFormatter pattern such as
+ * "dd/MM/yyyy", "epochMillis" or "epochSeconds", and ISO when it is not set. Patterns are
+ * resolved strictly, so "31/02/2024" is malformed, and are compiled once per plan however
+ * many mappings use them. The dateFormat is how values are written: "iso" for the ISO
+ * text of the date or date-time, the default, or "epochMillis" or "epochSeconds" for a
+ * number. Epoch values are UTC, unless a date-time carries an offset or zone of its own;
+ * a date counts from the start of its day.
+ *
+ * Fixed-width ISO values are converted to epoch numbers by IsoDates without creating
+ * java.time objects. Text that does not match a pattern is rejected before it is
+ * resolved, so most malformed values cost no exception.
+ */
+final class DateConversion implements Conversion {
+
+    enum Format { ISO, EPOCH_MILLIS, EPOCH_SECONDS }
+
+    private static final long NOT_A_DATE = ValueConverter.NOT_A_NUMBER;
+    private static final long MILLIS_PER_DAY = IsoDates.SECONDS_PER_DAY * 1000;
+
+    private final boolean dateTime;
+    private final Format input;
+    private final DateTimeFormatter pattern;
+    private final Format output;
+
+    private DateConversion(boolean dateTime, Format input, DateTimeFormatter pattern, Format output) {
+        this.dateTime = dateTime;
+        this.input = input;
+        this.pattern = pattern;
+        this.output = output;
+    }
+
+    /**
+     * Conversion of a mapping's data type, date pattern and date format. Formatters of
+     * patterns are shared through the given map; mappings of other data types, and date
+     * mappings reading and writing ISO text, use the plain data type conversion.
+     */
+    static Conversion forMapping(String dataType, String datePattern, String dateFormat,
+                                 Map<String, DateTimeFormatter> formatters) {
+        ValueConverter type = ValueConverter.forDataType(dataType);
+        if (type != ValueConverter.DATE && type != ValueConverter.DATE_TIME) {
+            return type;
+        }
+
+        Format output = format(dateFormat);
+        if (output == null) {
+            System.err.println("Invalid dateFormat, expected iso, epochMillis or epochSeconds: " + dateFormat);
+            output = Format.ISO;
+        }
+        Format input = format(datePattern);
+        DateTimeFormatter pattern = null;
+        if (input == null) {
+            pattern = formatters.computeIfAbsent(datePattern, DateConversion::compilePattern);
+            input = Format.ISO;
+        }
+        if (input == Format.ISO && pattern == null && output == Format.ISO) {
+            return type;
+        }
+        return new DateConversion(type == ValueConverter.DATE_TIME, input, pattern, output);
+    }
+
+    /**
+     * Format named by a datePattern or dateFormat, ISO when it is not set; null for any
+     * other text
+     */
+    private static Format format(String name) {
+        if (name == null || name.isEmpty() || "iso".equalsIgnoreCase(name)) {
+            return Format.ISO;
+        } else if ("epochMillis".equalsIgnoreCase(name)) {
+            return Format.EPOCH_MILLIS;
+        } else if ("epochSeconds".equalsIgnoreCase(name)) {
+            return Format.EPOCH_SECONDS;
+        }
+        return null;
+    }
+
+    /**
+     * Compile a strict formatter for a pattern; an invalid one is reported and values are
+     * read as ISO text. Year patterns "yyyy" need an era to be resolved strictly, which
+     * defaults to the current one.
+     */
+    private static DateTimeFormatter compilePattern(String datePattern) {
+        try {
+            return new DateTimeFormatterBuilder()
+                    .appendPattern(datePattern)
+                    .parseDefaulting(ChronoField.ERA, 1)
+                    .toFormatter()
+                    .withResolverStyle(ResolverStyle.STRICT);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid datePattern " + datePattern + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Object parse(String value) {
+        if (output != Format.ISO) {
+            long millis = epochMillis(value);
+            if (millis == NOT_A_DATE) {
+                return null;
+            }
+            return output == Format.EPOCH_MILLIS ? millis : Math.floorDiv(millis, 1000);
+        }
+        if (input != Format.ISO) {
+            long millis = epochInput(value);
+            if (millis == NOT_A_DATE) {
+                return null;
+            }
+            return dateTime
+                    ? LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000,
+                            ZoneOffset.UTC)
+                    : LocalDate.ofEpochDay(Math.floorDiv(millis, MILLIS_PER_DAY));
+        }
+        TemporalAccessor parsed = parseText(value);
+        if (parsed == null) {
+            return null;
+        }
+        try {
+            return dateTime ? LocalDateTime.from(parsed) : LocalDate.from(parsed);
+        } catch (DateTimeException e) {
+            // The pattern does not have the fields of the data type
+            return null;
+        }
+    }
+
+    @Override
+    public boolean write(JsonGenerator generator, String value) throws IOException {
+        if (output == Format.ISO) {
+            Object parsed = parse(value);
+            if (parsed == null) {
+                return false;
+            }
+            generator.writeString(parsed.toString());
+            return true;
+        }
+        long millis = epochMillis(value);
+        if (millis == NOT_A_DATE) {
+            return false;
+        }
+        generator.writeNumber(output == Format.EPOCH_MILLIS ? millis : Math.floorDiv(millis, 1000));
+        return true;
+    }
+
+    /**
+     * Milliseconds since the epoch of a value, or NOT_A_DATE when it is malformed
+     */
+    private long epochMillis(String value) {
+        if (input != Format.ISO) {
+            long millis = epochInput(value);
+            return millis == NOT_A_DATE || dateTime ? millis : Math.floorDiv(millis, MILLIS_PER_DAY) * MILLIS_PER_DAY;
+        }
+        if (pattern == null) {
+            if (!dateTime && IsoDates.isDate(value)) {
+                return IsoDates.epochDay(value) * MILLIS_PER_DAY;
+            }
+            if (dateTime && IsoDates.isDateTime(value)) {
+                return IsoDates.epochSecond(value) * 1000;
+            }
+        }
+        TemporalAccessor parsed = parseText(value);
+        if (parsed == null) {
+            return NOT_A_DATE;
+        }
+        try {
+            if (!dateTime) {
+                return Math.multiplyExact(LocalDate.from(parsed).toEpochDay(), MILLIS_PER_DAY);
+            }
+            LocalDateTime local = LocalDateTime.from(parsed);
+            ZoneId zone = parsed.query(TemporalQueries.zone());
+            long seconds = zone != null ? local.atZone(zone).toEpochSecond() : local.toEpochSecond(ZoneOffset.UTC);
+            return Math.addExact(Math.multiplyExact(seconds, 1000L), local.getNano() / 1_000_000);
+        } catch (DateTimeException | ArithmeticException e) {
+            return NOT_A_DATE;
+        }
+    }
+
+    /**
+     * Milliseconds of an epochMillis or epochSeconds value, or NOT_A_DATE when it is not
+     * an integer or out of range
+     */
+    private long epochInput(String value) {
+        long epoch = ValueConverter.parseAsciiLong(value, Long.MIN_VALUE + 1, Long.MAX_VALUE);
+        if (epoch == NOT_A_DATE || input == Format.EPOCH_MILLIS) {
+            return epoch;
+        }
+        return Math.abs(epoch) <= Long.MAX_VALUE / 1000 ? epoch * 1000 : NOT_A_DATE;
+    }
+
+    /**
+     * Fields of ISO text or text in the pattern, or null when it does not match
+     */
+    private TemporalAccessor parseText(String value) {
+        DateTimeFormatter formatter = pattern != null ? pattern
+                : dateTime ? DateTimeFormatter.ISO_DATE_TIME : DateTimeFormatter.ISO_DATE;
+        // Text that does not match is rejected without an exception; only text that
+        // matches but is out of range, such as a 31st of February, throws
+        ParsePosition position = new ParsePosition(0);
+        if (formatter.parseUnresolved(value, position) == null || position.getIndex() != value.length()) {
+            return null;
+        }
+        try {
+            return formatter.parse(value);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.bitsevn.transformer.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Pool of idle DocumentBuilders shared by all transformations.
+ *
+ * A DocumentBuilder is not thread safe, so each one is confined to the thread that
+ * acquired it until it is released, reset and handed to the next caller. The pool only
+ * bounds how many idle builders are kept, not how many parses run at once: a caller never
+ * waits, since a builder is created when none is idle, and a released builder is dropped
+ * when maxIdle builders are already idle. A parse reading a slow client stream therefore
+ * never holds up other transformations. A reuse counts as a hit and a creation as a miss.
+ */
+final class DocumentBuilderPool {
+
+    private final DocumentBuilderFactory factory;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<DocumentBuilder> idle = new ConcurrentLinkedQueue<>();
+    // Size of the idle queue, whose own size() walks every node
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    DocumentBuilderPool(DocumentBuilderFactory factory, int maxIdle) {
+        if (maxIdle < 1) {
+            throw new IllegalArgumentException("Document builder pool size must be at least 1");
+        }
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Take an idle builder for the calling thread, or create one when none is idle.
+     * Every acquired builder must be given back with release.
+     */
+    DocumentBuilder acquire() throws ParserConfigurationException {
+        DocumentBuilder builder = idle.poll();
+        if (builder != null) {
+            idleCount.decrementAndGet();
+            hits.increment();
+        } else {
+            builder = factory.newDocumentBuilder();
+            misses.increment();
+        }
+        inUse.incrementAndGet();
+        return builder;
+    }
+
+    /**
+     * Reset a builder and return it to the pool; a builder that cannot be reset is
+     * discarded and one released while maxIdle builders are idle is dropped
+     */
+    void release(DocumentBuilder builder) {
+        inUse.decrementAndGet();
+        try {
+            builder.reset();
+        } catch (RuntimeException e) {
+            discarded.increment();
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        idle.offer(builder);
+    }
+
+    /**
+     * Snapshot of the pool size and usage counters
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxIdle", maxIdle);
+        stats.put("idle", idleCount.get());
+        stats.put("inUse", inUse.get());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("discarded", discarded.sum());
+        stats.put("dropped", dropped.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,151 @@
+package com.bitsevn.transformer.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+
+/**
+ * Hand-written parsing of the fixed-width ISO forms that make up most date values:
+ * yyyy-MM-dd, and yyyy-MM-ddTHH:mm or yyyy-MM-ddTHH:mm:ss, optionally followed by Z.
+ * Values are validated without throwing and converted without going through a
+ * DateTimeFormatter; other ISO forms, such as fractions of a second or offsets other
+ * than Z, are left to the JDK parsers.
+ */
+final class IsoDates {
+
+    static final long SECONDS_PER_DAY = 86_400;
+
+    private IsoDates() {
+    }
+
+    /**
+     * Whether text starts with yyyy-MM-dd in ASCII digits
+     */
+    static boolean hasDatePrefix(String value) {
+        if (value.length() < 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return false;
+        }
+        for (int i = 0; i < 10; i++) {
+            if (i != 4 && i != 7 && !isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether text is a valid yyyy-MM-dd date
+     */
+    static boolean isDate(String value) {
+        return value.length() == 10 && hasDatePrefix(value) && isValidDay(value);
+    }
+
+    /**
+     * Whether text is a valid yyyy-MM-ddTHH:mm or yyyy-MM-ddTHH:mm:ss date-time,
+     * optionally followed by Z
+     */
+    static boolean isDateTime(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        int length = value.charAt(value.length() - 1) == 'Z' ? value.length() - 1 : value.length();
+        if ((length != 16 && length != 19) || !hasDatePrefix(value) || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || !isDigits(value, 11, 13) || !isDigits(value, 14, 16)
+                || digits(value, 11, 13) > 23 || digits(value, 14, 16) > 59) {
+            return false;
+        }
+        if (length == 19 && (value.charAt(16) != ':' || !isDigits(value, 17, 19) || digits(value, 17, 19) > 59)) {
+            return false;
+        }
+        return isValidDay(value);
+    }
+
+    /**
+     * Date of a yyyy-MM-dd text, or null when the month or day is out of range
+     */
+    static LocalDate localDate(String value) {
+        return isValidDay(value) ? LocalDate.of(year(value), month(value), day(value)) : null;
+    }
+
+    /**
+     * Date-time of a text isDateTime accepts
+     */
+    static LocalDateTime localDateTime(String value) {
+        return LocalDateTime.of(year(value), month(value), day(value),
+                digits(value, 11, 13), digits(value, 14, 16), seconds(value));
+    }
+
+    /**
+     * Length of the text LocalDateTime prints for a text isDateTime accepts, which leaves
+     * out zero seconds and the Z
+     */
+    static int localDateTimeLength(String value) {
+        return seconds(value) == 0 ? 16 : 19;
+    }
+
+    /**
+     * Days since 1970-01-01 of the date a text starts with
+     */
+    static long epochDay(String value) {
+        // Days from the civil calendar, counted in 400 year eras starting in March
+        int month = month(value);
+        int year = year(value) - (month <= 2 ? 1 : 0);
+        int era = Math.floorDiv(year, 400);
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day(value) - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+    /**
+     * Seconds since 1970-01-01T00:00Z of a text isDateTime accepts
+     */
+    static long epochSecond(String value) {
+        return epochDay(value) * SECONDS_PER_DAY
+                + digits(value, 11, 13) * 3600 + digits(value, 14, 16) * 60 + seconds(value);
+    }
+
+    private static boolean isValidDay(String value) {
+        int month = month(value);
+        int day = day(value);
+        return month >= 1 && month <= 12 && day >= 1 && day <= Month.of(month).length(Year.isLeap(year(value)));
+    }
+
+    private static int seconds(String value) {
+        return value.length() >= 19 && value.charAt(16) == ':' ? digits(value, 17, 19) : 0;
+    }
+
+    private static int year(String value) {
+        return digits(value, 0, 4);
+    }
+
+    private static int month(String value) {
+        return digits(value, 5, 7);
+    }
+
+    private static int day(String value) {
+        return digits(value, 8, 10);
+    }
+
+    private static int digits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            result = result * 10 + (value.charAt(i) - '0');
+        }
+        return result;
+    }
+
+    private static boolean isDigits(String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
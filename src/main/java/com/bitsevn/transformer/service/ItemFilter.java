@@ -0,0 +1,227 @@
+package com.bitsevn.transformer.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.w3c.dom.Element;
+
+import com.bitsevn.transformer.model.FilterCondition;
+
+/**
+ * Conditions an element selected by an array or nested mapping must meet to become an
+ * item, such as "@status = ACTIVE" and "quantity > 0"; all conditions must hold.
+ *
+ * Condition fields are read like item fields, relative to the item element. Comparisons
+ * are numeric when the condition value is a number and compare text otherwise; against a
+ * number, a field that is not one only meets "!=", so "quantity > 0" drops a quantity of
+ * "abc". A missing field fails every condition but "exists". Conditions on attributes of
+ * the item itself can be decided from its start tag, before the item is buffered or
+ * converted.
+ */
+final class ItemFilter {
+
+    enum Operator {
+        EQ("="), NE("!="), GT(">"), GE(">="), LT("<"), LE("<="), EXISTS(null);
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * Operator of a name ("eq", "gt") or symbol ("=", ">"), or null when unknown
+         */
+        static Operator of(String operator) {
+            for (Operator candidate : values()) {
+                if (candidate.name().equalsIgnoreCase(operator) || operator.equals(candidate.symbol)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Condition[] conditions;
+
+    private ItemFilter(List<Condition> conditions) {
+        this.conditions = conditions.toArray(new Condition[0]);
+    }
+
+    /**
+     * Compile the filters of a nested property mapping; null when there are none
+     */
+    static ItemFilter compile(List<FilterCondition> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return null;
+        }
+        List<Condition> conditions = new ArrayList<>();
+        for (FilterCondition filter : filters) {
+            String operator = filter.getOperator();
+            if (operator == null) {
+                operator = filter.getValue() != null ? "eq" : "exists";
+            }
+            conditions.add(new Condition(filter.getXmlField(), operator, filter.getValue()));
+        }
+        return new ItemFilter(conditions);
+    }
+
+    /**
+     * Parse the filter section of a complex array mapping:
+     * "field=value,field>value,field" where a bare field must exist
+     */
+    static ItemFilter parse(String filters) {
+        List<Condition> conditions = new ArrayList<>();
+        for (String part : filters.split(",")) {
+            String condition = part.trim();
+            if (condition.isEmpty()) {
+                continue;
+            }
+            int start = indexOfOperator(condition);
+            if (start < 0) {
+                conditions.add(new Condition(condition, "exists", null));
+                continue;
+            }
+            int end = start + 1;
+            if (end < condition.length() && condition.charAt(end) == '=') {
+                end++;
+            }
+            conditions.add(new Condition(condition.substring(0, start).trim(), condition.substring(start, end),
+                    condition.substring(end).trim()));
+        }
+        return conditions.isEmpty() ? null : new ItemFilter(conditions);
+    }
+
+    private static int indexOfOperator(String condition) {
+        for (int i = 0; i < condition.length(); i++) {
+            char c = condition.charAt(i);
+            if (c == '=' || c == '!' || c == '<' || c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether an element meets every condition
+     */
+    boolean accepts(Element item) {
+        ChildElementIndex index = ChildElementIndex.of(item);
+        for (Condition condition : conditions) {
+            if (!condition.test(condition.valueOf(item, index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a condition on an attribute of the item itself already fails, given the
+     * attributes of its start tag by qualified name
+     */
+    boolean rejectsStartTag(UnaryOperator<String> attributes) {
+        for (Condition condition : conditions) {
+            if (condition.onOwnAttribute() && !condition.test(attributes.apply(condition.path.attributeName()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Condition {
+        private final String field;
+        private final CompiledPath path;
+        private final Operator operator;
+        private final String value;
+        private final BigDecimal number;
+
+        Condition(String field, String operator, String value) {
+            this.field = field;
+            this.path = CompiledPath.compile(field);
+            this.operator = operator != null ? Operator.of(operator.trim()) : null;
+            this.value = value;
+            this.number = toNumber(value);
+            if (this.operator == null || (this.operator != Operator.EXISTS && value == null)) {
+                // Never met, so the mapping selects nothing rather than everything
+                System.err.println("Invalid filter condition on " + field + ": " + operator + " " + value);
+            }
+        }
+
+        boolean onOwnAttribute() {
+            return path.length() == 0 && path.target() == CompiledPath.Target.ATTRIBUTE;
+        }
+
+        /**
+         * Text of the field in an item: the attribute or own text an attribute or text()
+         * path selects, otherwise the value attribute or text content of the child element,
+         * falling back to an attribute of the item named like the field
+         */
+        String valueOf(Element item, ChildElementIndex index) {
+            Element element = index.select(item, path);
+            if (!path.selectsElements()) {
+                return element != null ? ChildElementIndex.targetValue(element, path) : null;
+            }
+            if (element != null) {
+                return element.hasAttribute("value") ? element.getAttribute("value") : element.getTextContent();
+            }
+            return field != null && item.hasAttribute(field) ? item.getAttribute(field) : null;
+        }
+
+        boolean test(String actual) {
+            if (operator == null || (operator != Operator.EXISTS && value == null)) {
+                return false;
+            }
+            if (actual == null) {
+                return false;
+            }
+            if (operator == Operator.EXISTS) {
+                return true;
+            }
+            String text = actual.trim();
+            int comparison;
+            if (number != null) {
+                BigDecimal actualNumber = toNumber(text);
+                if (actualNumber == null) {
+                    // Not a number, so it can differ from the value but not be ordered against it
+                    return operator == Operator.NE;
+                }
+                comparison = actualNumber.compareTo(number);
+            } else {
+                comparison = text.compareTo(value);
+            }
+            switch (operator) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case GT:
+                    return comparison > 0;
+                case GE:
+                    return comparison >= 0;
+                case LT:
+                    return comparison < 0;
+                case LE:
+                    return comparison <= 0;
+                default:
+                    return false;
+            }
+        }
+
+        private static BigDecimal toNumber(String text) {
+            if (text == null || text.isEmpty()) {
+                return null;
+            }
+            char first = text.charAt(0);
+            if (!Character.isDigit(first) && first != '-' && first != '+' && first != '.') {
+                return null;
+            }
+            try {
+                return new BigDecimal(text.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.bitsevn.transformer.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Output layout planned from the jsonPaths of a plan, used to write a result straight to a
+ * JsonGenerator without building an ObjectNode tree first.
+ *
+ * Every mapping owns an output slot, numbered in processing order (property mappings, then
+ * array mappings, then nested property mappings). The jsonPaths are merged into a tree of
+ * object fields. When writing, a field comes at the position of the first slot that
+ * produced a value below it and holds the value of the last slot writing it, which is the
+ * field order and overwrite behavior of the tree built with setJsonValue. A layout in which
+ * a field is both written as a value and used as a parent object is not streamable; such
+ * plans are written through the tree.
+ *
+ * The same merged paths give the tree its parent objects: every slot knows the parent
+ * object it is written to and its field name there, and an object being built resolves
+ * each parent once, the first time a slot below it has a value, for all slots sharing it.
+ */
+final class JsonOutputLayout {
+
+    /**
+     * Values of one transformation, looked up by slot
+     */
+    interface SlotWriter {
+
+        /**
+         * Whether the slot has a value to write; called before any token is written
+         */
+        boolean isPresent(int slot);
+
+        /**
+         * Write the value of a present slot
+         */
+        void write(int slot, JsonGenerator generator) throws IOException;
+    }
+
+    private final LayoutNode root;
+    private final boolean streamable;
+    // Parent object and field name of every slot; parent 0 is the object itself
+    private final int[] slotParents;
+    private final String[] fieldNames;
+    // Field name of every parent and the parent enclosing it
+    private final String[] parentNames;
+    private final int[] enclosingParents;
+
+    private JsonOutputLayout(LayoutNode root, boolean streamable, int[] slotParents, String[] fieldNames,
+                             List<String> parentNames, List<Integer> enclosingParents) {
+        this.root = root;
+        this.streamable = streamable;
+        this.slotParents = slotParents;
+        this.fieldNames = fieldNames;
+        this.parentNames = parentNames.toArray(new String[0]);
+        this.enclosingParents = enclosingParents.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Plan the layout of slots given their pre-split jsonPaths, in slot order
+     */
+    static JsonOutputLayout plan(List<String[]> slotPaths) {
+        LayoutNode root = new LayoutNode(null);
+        root.parentId = 0;
+        List<String> parentNames = new ArrayList<>(List.of(""));
+        List<Integer> enclosingParents = new ArrayList<>(List.of(-1));
+        int[] slotParents = new int[slotPaths.size()];
+        String[] fieldNames = new String[slotPaths.size()];
+        boolean streamable = true;
+        for (int slot = 0; slot < slotPaths.size(); slot++) {
+            String[] path = slotPaths.get(slot);
+            if (path == null || path.length == 0) {
+                streamable = false;
+                continue;
+            }
+            LayoutNode node = root;
+            int parent = 0;
+            for (int i = 0; i < path.length; i++) {
+                if (i > 0) {
+                    if (node.parentId < 0) {
+                        node.parentId = parentNames.size();
+                        parentNames.add(node.name);
+                        enclosingParents.add(parent);
+                    }
+                    parent = node.parentId;
+                }
+                node = node.children.computeIfAbsent(path[i], LayoutNode::new);
+                node.touching.add(slot);
+            }
+            node.writers.add(slot);
+            slotParents[slot] = parent;
+            fieldNames[slot] = path[path.length - 1];
+        }
+        return new JsonOutputLayout(root, streamable && !root.hasConflict(), slotParents, fieldNames,
+                parentNames, enclosingParents);
+    }
+
+    boolean isStreamable() {
+        return streamable;
+    }
+
+    /**
+     * Parents of the slots within an object being built, or null when fields of the layout
+     * conflict; a slot may then replace an object other slots are written to, so their
+     * paths have to be walked for every value
+     */
+    Parents parents(ObjectNode object) {
+        return streamable ? new Parents(object) : null;
+    }
+
+    /**
+     * Write the root object with the values of all present slots
+     */
+    void write(JsonGenerator generator, SlotWriter slots) throws IOException {
+        generator.writeStartObject();
+        writeFields(root, generator, slots);
+        generator.writeEndObject();
+    }
+
+    private void writeFields(LayoutNode node, JsonGenerator generator, SlotWriter slots) throws IOException {
+        if (presentInPlanOrder(node, slots)) {
+            // The usual case needs no list of the present fields
+            for (LayoutNode child : node.children.values()) {
+                if (firstPresent(child.touching, slots) >= 0) {
+                    writeField(child, generator, slots);
+                }
+            }
+            return;
+        }
+
+        List<PresentField> present = new ArrayList<>(node.children.size());
+        for (LayoutNode child : node.children.values()) {
+            int rank = firstPresent(child.touching, slots);
+            if (rank >= 0) {
+                present.add(new PresentField(child, rank));
+            }
+        }
+        // A field whose first mapping produced nothing moves behind the fields written before it
+        present.sort(Comparator.comparingInt(field -> field.rank));
+
+        for (PresentField presentField : present) {
+            writeField(presentField.node, generator, slots);
+        }
+    }
+
+    private void writeField(LayoutNode field, JsonGenerator generator, SlotWriter slots) throws IOException {
+        generator.writeFieldName(field.name);
+        if (field.children.isEmpty()) {
+            slots.write(lastPresent(field.writers, slots), generator);
+        } else {
+            generator.writeStartObject();
+            writeFields(field, generator, slots);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Whether the present fields of a node come in the order of their first present slot
+     */
+    private static boolean presentInPlanOrder(LayoutNode node, SlotWriter slots) {
+        int lastRank = -1;
+        for (LayoutNode child : node.children.values()) {
+            int rank = firstPresent(child.touching, slots);
+            if (rank >= 0) {
+                if (rank < lastRank) {
+                    return false;
+                }
+                lastRank = rank;
+            }
+        }
+        return true;
+    }
+
+    private static int firstPresent(List<Integer> candidates, SlotWriter slots) {
+        for (int slot : candidates) {
+            if (slots.isPresent(slot)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastPresent(List<Integer> candidates, SlotWriter slots) {
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (slots.isPresent(candidates.get(i))) {
+                return candidates.get(i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parent objects of one object being built, each created when it is first needed and
+     * kept for the other slots below it
+     */
+    final class Parents {
+        private final ObjectNode[] objects = new ObjectNode[parentNames.length];
+
+        private Parents(ObjectNode object) {
+            objects[0] = object;
+        }
+
+        /**
+         * Object the value of a slot is written to
+         */
+        ObjectNode of(int slot) {
+            return resolve(slotParents[slot]);
+        }
+
+        /**
+         * Field name of a slot within its parent
+         */
+        String fieldName(int slot) {
+            return fieldNames[slot];
+        }
+
+        private ObjectNode resolve(int parent) {
+            ObjectNode object = objects[parent];
+            if (object == null) {
+                // Without conflicts no slot writes a parent, so it is created here or not at all
+                object = resolve(enclosingParents[parent]).putObject(parentNames[parent]);
+                objects[parent] = object;
+            }
+            return object;
+        }
+    }
+
+    private static final class PresentField {
+        private final LayoutNode node;
+        private final int rank;
+
+        PresentField(LayoutNode node, int rank) {
+            this.node = node;
+            this.rank = rank;
+        }
+    }
+
+    private static final class LayoutNode {
+        private final String name;
+        private final Map<String, LayoutNode> children = new LinkedHashMap<>();
+        private final List<Integer> touching = new ArrayList<>();
+        private final List<Integer> writers = new ArrayList<>();
+        private int parentId = -1;
+
+        LayoutNode(String name) {
+            this.name = name;
+        }
+
+        boolean hasConflict() {
+            for (LayoutNode child : children.values()) {
+                if ((!child.writers.isEmpty() && !child.children.isEmpty()) || child.hasConflict()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class MongoConfigurationService {
     private final TransformationConfigRepository repository;
     private final ObjectMapper objectMapper;
     private final Map<String, TransformationConfig> configCache;
+    private final Map<String, CompiledTransformationPlan> planCache;
     
     private static final String COLLECTION_NAME = "transformation_configs";
     
@@ -31,6 +32,7 @@ public class MongoConfigurationService {
         this.repository = repository;
         this.objectMapper = new ObjectMapper();
         this.configCache = new ConcurrentHashMap<>();
+        this.planCache = new ConcurrentHashMap<>();
     }
     
     /**
@@ -132,6 +134,23 @@ public class MongoConfigurationService {
         }
     }
     
+    /**
+     * Load the compiled execution plan of a configuration; plans are cached alongside
+     * their configuration and recompiled whenever the cached configuration is replaced
+     */
+    public CompiledTransformationPlan loadPlan(String configName) {
+        TransformationConfig config = loadConfiguration(configName);
+        if (config == null) {
+            return null;
+        }
+        CompiledTransformationPlan plan = planCache.get(configName);
+        if (plan == null || plan.getConfig() != config) {
+            plan = CompiledTransformationPlan.compile(config);
+            planCache.put(configName, plan);
+        }
+        return plan;
+    }
+    
     /**
      * Load transformation configuration from JSON string (for backward compatibility)
      */
@@ -199,6 +218,7 @@ public class MongoConfigurationService {
                 if (savedConfig != null) {
                     // Update cache
                     configCache.put(configName, savedConfig);
+                    planCache.remove(configName);
                     return true;
                 }
             }
@@ -218,6 +238,7 @@ public class MongoConfigurationService {
         try {
             // Remove from cache first
             configCache.remove(configName);
+            planCache.remove(configName);
             
             // Delete from MongoDB
             Query query = new Query(Criteria.where("name").is(configName));
@@ -274,6 +295,7 @@ public class MongoConfigurationService {
      */
     public void removeCachedConfiguration(String name) {
         configCache.remove(name);
+        planCache.remove(name);
     }
     
     /**
@@ -281,6 +303,7 @@ public class MongoConfigurationService {
      */
     public void clearCache() {
         configCache.clear();
+        planCache.clear();
     }
     
     /**
@@ -296,6 +319,7 @@ public class MongoConfigurationService {
     public TransformationConfig refreshConfiguration(String configName) {
         // Remove from cache
         configCache.remove(configName);
+        planCache.remove(configName);
         
         // Reload from MongoDB
         return loadConfiguration(configName);
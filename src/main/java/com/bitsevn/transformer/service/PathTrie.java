@@ -0,0 +1,410 @@
+package com.bitsevn.transformer.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All xmlPaths of a plan merged into one trie, so a single document traversal selects
+ * the elements of every mapping.
+ *
+ * Each trie node is a path step (name, index and whether it is a descendant step).
+ * Paths sharing leading steps share nodes. The first step matches at any depth, later
+ * steps among the children of the element their parent step is bound to, or among all
+ * its descendants for "//" steps. A node selects every match (or only the indexed one)
+ * for the paths ending at it, and binds the first (or indexed) match for the paths
+ * continuing below it, so the selection is the same as evaluating each path on its own.
+ * Attribute and text() paths end at the node of their last element step; the caller
+ * resolves their target on the selected element.
+ *
+ * Matching is a deterministic automaton over start and end tags: every node binds at
+ * most once per document and is never revisited, so it runs over a streaming event
+ * source without lookahead, backtracking or buffering.
+ *
+ * Since a step binds once, a path whose step has bound an element that has ended can
+ * select nothing more, and neither can a path whose indexed last step has selected its
+ * match. The cursor reports such paths as exhausted, so a streaming caller can tell when
+ * the rest of the document no longer matters.
+ */
+final class PathTrie {
+
+    private final TrieNode root;
+    private final int nodeCount;
+    private final CompiledPath[] paths;
+
+    private PathTrie(TrieNode root, int nodeCount, CompiledPath[] paths) {
+        this.root = root;
+        this.nodeCount = nodeCount;
+        this.paths = paths;
+    }
+
+    /**
+     * Number of paths added to the trie; path ids range from 0 to pathCount - 1
+     */
+    int pathCount() {
+        return paths.length;
+    }
+
+    /**
+     * Path with the given id
+     */
+    CompiledPath path(int pathId) {
+        return paths[pathId];
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Start matching a new document
+     */
+    Cursor newCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Collects paths and assigns each its id
+     */
+    static final class Builder {
+        private final TrieNode root = new TrieNode(-1, null, -1, false);
+        private final List<CompiledPath> paths = new ArrayList<>();
+        private int nodeCount;
+
+        /**
+         * Add a path and return its id; invalid paths, and paths without an element step,
+         * get an id but never match
+         */
+        int add(CompiledPath path) {
+            int pathId = paths.size();
+            paths.add(path);
+            if (!path.isValid() || path.length() == 0) {
+                return pathId;
+            }
+            TrieNode node = root;
+            for (int step = 0; step < path.length(); step++) {
+                if (step > 0) {
+                    node.pathsBelow = Arrays.copyOf(node.pathsBelow, node.pathsBelow.length + 1);
+                    node.pathsBelow[node.pathsBelow.length - 1] = pathId;
+                }
+                // The first step matches at any depth already, "//" in front of it changes nothing
+                boolean descendant = step > 0 && path.isDescendant(step);
+                node = node.child(path.name(step), path.index(step), descendant, this);
+                node.pathsThrough++;
+            }
+            node.terminals = Arrays.copyOf(node.terminals, node.terminals.length + 1);
+            node.terminals[node.terminals.length - 1] = pathId;
+            return pathId;
+        }
+
+        PathTrie build() {
+            root.freeze();
+            return new PathTrie(root, nodeCount, paths.toArray(new CompiledPath[0]));
+        }
+    }
+
+    private static final class TrieNode {
+        private static final TrieNode[] NONE = new TrieNode[0];
+
+        private final int id;
+        private final String name;
+        private final int index;
+        private final boolean descendant;
+        private int[] terminals = new int[0];
+        // Paths continuing below this step, exhausted once the element it binds has ended
+        private int[] pathsBelow = new int[0];
+        private int pathsThrough;
+        private final List<TrieNode> children = new ArrayList<>();
+        private Map<String, TrieNode[]> namedChildren = Map.of();
+        private TrieNode[] wildcardChildren = NONE;
+        private Map<String, TrieNode[]> namedDescendants = Map.of();
+        private TrieNode[] wildcardDescendants = NONE;
+
+        TrieNode(int id, String name, int index, boolean descendant) {
+            this.id = id;
+            this.name = name;
+            this.index = index;
+            this.descendant = descendant;
+        }
+
+        TrieNode child(String childName, int childIndex, boolean childDescendant, Builder builder) {
+            for (TrieNode child : children) {
+                if (child.name.equals(childName) && child.index == childIndex && child.descendant == childDescendant) {
+                    return child;
+                }
+            }
+            TrieNode child = new TrieNode(builder.nodeCount++, childName, childIndex, childDescendant);
+            children.add(child);
+            return child;
+        }
+
+        boolean hasChildren() {
+            return !children.isEmpty();
+        }
+
+        /**
+         * Whether steps continue among the children of the element this node binds
+         */
+        boolean hasChildSteps() {
+            return !namedChildren.isEmpty() || wildcardChildren.length > 0;
+        }
+
+        /**
+         * Whether "//" steps continue among the descendants of the element this node binds
+         */
+        boolean hasDescendantSteps() {
+            return !namedDescendants.isEmpty() || wildcardDescendants.length > 0;
+        }
+
+        /**
+         * Index the child and descendant steps by element name for dispatch
+         */
+        void freeze() {
+            Map<String, List<TrieNode>> named = new HashMap<>();
+            Map<String, List<TrieNode>> namedBelow = new HashMap<>();
+            List<TrieNode> wildcards = new ArrayList<>();
+            List<TrieNode> wildcardsBelow = new ArrayList<>();
+            for (TrieNode child : children) {
+                if ("*".equals(child.name)) {
+                    (child.descendant ? wildcardsBelow : wildcards).add(child);
+                } else {
+                    (child.descendant ? namedBelow : named).computeIfAbsent(child.name, key -> new ArrayList<>()).add(child);
+                }
+                child.freeze();
+            }
+            this.namedChildren = freeze(named);
+            this.wildcardChildren = wildcards.toArray(NONE);
+            this.namedDescendants = freeze(namedBelow);
+            this.wildcardDescendants = wildcardsBelow.toArray(NONE);
+        }
+
+        private static Map<String, TrieNode[]> freeze(Map<String, List<TrieNode>> named) {
+            Map<String, TrieNode[]> frozen = new HashMap<>();
+            named.forEach((childName, nodes) -> frozen.put(childName, nodes.toArray(NONE)));
+            return frozen;
+        }
+    }
+
+    /**
+     * Matching state of one document traversal. Feed it every start and end tag in
+     * document order; after each start tag the ids of the paths selecting that element
+     * are available through matchCount() and matchedPath(int).
+     */
+    final class Cursor {
+        private final int[] counts = new int[nodeCount];
+        private final List<List<TrieNode>> boundAtDepth = new ArrayList<>();
+        // Nodes with "//" steps below them and the depth of the element they are bound to, outermost first
+        private final List<TrieNode> descendantScopes = new ArrayList<>();
+        private final List<Integer> descendantScopeDepths = new ArrayList<>();
+        private int[] matched = new int[8];
+        private int matchCount;
+        private final boolean[] exhausted = new boolean[paths.length];
+        private int[] exhaustedPaths = new int[8];
+        private int exhaustedCount;
+        private int depth;
+        private long elementCount;
+        private long stepMatchCount;
+        private long prefixHitCount;
+
+        private Cursor() {
+            boundAtDepth.add(new ArrayList<>());
+        }
+
+        /**
+         * Advance into an element; returns the number of paths selecting it
+         */
+        int startElement(String elementName) {
+            depth++;
+            elementCount++;
+            if (boundAtDepth.size() <= depth) {
+                boundAtDepth.add(new ArrayList<>());
+            }
+            matchCount = 0;
+
+            // First steps match at any depth, later steps only below the element their parent is bound to
+            int openScopes = descendantScopes.size();
+            visit(root, elementName);
+            List<TrieNode> parents = boundAtDepth.get(depth - 1);
+            for (int i = 0; i < parents.size(); i++) {
+                visit(parents.get(i), elementName);
+            }
+            // "//" steps match anywhere inside the element their parent is bound to
+            for (int i = 0; i < openScopes; i++) {
+                visitDescendants(descendantScopes.get(i), elementName);
+            }
+            return matchCount;
+        }
+
+        /**
+         * Whether a path step could select or bind an element starting now with this name.
+         * When none can, the element may be passed to skipElement instead of startElement.
+         */
+        boolean isRelevant(String elementName) {
+            if (hasChild(root, elementName)) {
+                return true;
+            }
+            List<TrieNode> parents = boundAtDepth.get(depth);
+            for (int i = 0; i < parents.size(); i++) {
+                if (hasChild(parents.get(i), elementName)) {
+                    return true;
+                }
+            }
+            for (int i = 0; i < descendantScopes.size(); i++) {
+                TrieNode scope = descendantScopes.get(i);
+                if (scope.namedDescendants.containsKey(elementName) || scope.wildcardDescendants.length > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Advance into an element no path step selects or binds, without matching it; its
+         * children can then only match first steps and open "//" steps
+         */
+        void skipElement() {
+            depth++;
+            if (boundAtDepth.size() <= depth) {
+                boundAtDepth.add(new ArrayList<>());
+            }
+        }
+
+        private boolean hasChild(TrieNode parent, String elementName) {
+            return parent.namedChildren.containsKey(elementName) || parent.wildcardChildren.length > 0;
+        }
+
+        /**
+         * Id of the i-th path selecting the element passed to the last startElement call
+         */
+        int matchedPath(int i) {
+            return matched[i];
+        }
+
+        int matchCount() {
+            return matchCount;
+        }
+
+        /**
+         * Number of paths that can select no further element, in the order they became so
+         */
+        int exhaustedCount() {
+            return exhaustedCount;
+        }
+
+        /**
+         * Id of the i-th path that became exhausted
+         */
+        int exhaustedPath(int i) {
+            return exhaustedPaths[i];
+        }
+
+        /**
+         * Number of elements passed to startElement so far
+         */
+        long elementCount() {
+            return elementCount;
+        }
+
+        /**
+         * Number of path steps that selected or bound an element so far
+         */
+        long stepMatchCount() {
+            return stepMatchCount;
+        }
+
+        /**
+         * Number of step matches served from a shared prefix so far: a step shared by k
+         * paths is matched once instead of once per path, saving k - 1 navigations
+         */
+        long prefixHitCount() {
+            return prefixHitCount;
+        }
+
+        /**
+         * Leave the current element
+         */
+        void endElement() {
+            List<TrieNode> bound = boundAtDepth.get(depth);
+            for (int i = 0; i < bound.size(); i++) {
+                exhaust(bound.get(i).pathsBelow);
+            }
+            bound.clear();
+            while (!descendantScopeDepths.isEmpty() && descendantScopeDepths.get(descendantScopeDepths.size() - 1) == depth) {
+                exhaust(descendantScopes.remove(descendantScopes.size() - 1).pathsBelow);
+                descendantScopeDepths.remove(descendantScopeDepths.size() - 1);
+            }
+            depth--;
+        }
+
+        private void exhaust(int[] pathIds) {
+            for (int pathId : pathIds) {
+                if (!exhausted[pathId]) {
+                    exhausted[pathId] = true;
+                    if (exhaustedCount == exhaustedPaths.length) {
+                        exhaustedPaths = Arrays.copyOf(exhaustedPaths, exhaustedPaths.length * 2);
+                    }
+                    exhaustedPaths[exhaustedCount++] = pathId;
+                }
+            }
+        }
+
+        private void visit(TrieNode parent, String elementName) {
+            TrieNode[] named = parent.namedChildren.get(elementName);
+            if (named != null) {
+                for (TrieNode node : named) {
+                    step(node);
+                }
+            }
+            for (TrieNode node : parent.wildcardChildren) {
+                step(node);
+            }
+        }
+
+        private void visitDescendants(TrieNode parent, String elementName) {
+            TrieNode[] named = parent.namedDescendants.get(elementName);
+            if (named != null) {
+                for (TrieNode node : named) {
+                    step(node);
+                }
+            }
+            for (TrieNode node : parent.wildcardDescendants) {
+                step(node);
+            }
+        }
+
+        private void step(TrieNode node) {
+            int position = counts[node.id]++;
+            boolean used = false;
+            if (node.terminals.length > 0 && (node.index < 0 || position == node.index)) {
+                for (int pathId : node.terminals) {
+                    if (matchCount == matched.length) {
+                        matched = Arrays.copyOf(matched, matched.length * 2);
+                    }
+                    matched[matchCount++] = pathId;
+                }
+                if (node.index >= 0) {
+                    // The indexed match is the only one these paths select
+                    exhaust(node.terminals);
+                }
+                used = true;
+            }
+            // Only the first (or indexed) match continues the paths below this step
+            if (node.hasChildren() && position == Math.max(node.index, 0)) {
+                if (node.hasChildSteps()) {
+                    boundAtDepth.get(depth).add(node);
+                }
+                if (node.hasDescendantSteps()) {
+                    descendantScopes.add(node);
+                    descendantScopeDepths.add(depth);
+                }
+                used = true;
+            }
+            if (used) {
+                stepMatchCount++;
+                prefixHitCount += node.pathsThrough - 1;
+            }
+        }
+    }
+}
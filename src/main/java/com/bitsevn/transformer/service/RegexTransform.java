@@ -0,0 +1,246 @@
+package com.bitsevn.transformer.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Regular expression transformation rule, compiled once into a Pattern:
+ * - "regex:pattern->replacement" replaces every match, with $1 style group references
+ * - "extract:pattern" keeps the first group of the first match, or the whole match when
+ *   the pattern has no group
+ * - "matches:pattern" keeps values the pattern matches entirely
+ * A value without a match for extract or matches has no value, so the mapping's default
+ * value is used.
+ *
+ * Rules of a transformations map are compiled with their plan; inline rules go through a
+ * bounded cache shared by all plans, so versions of a configuration reuse their Patterns.
+ * Matching a single value is limited in steps and time, both growing with the length of
+ * the value so that a linear pattern always completes: a pattern that backtracks
+ * catastrophically on some input is abandoned for that value, which then has no value.
+ */
+final class RegexTransform implements UnaryOperator<String> {
+
+    static final int CACHE_SIZE = 256;
+    // Characters read by the matcher, and time taken, before a value is abandoned: a fixed
+    // allowance plus an allowance per character of the value
+    static final long MAX_STEPS = 1_000_000;
+    static final long STEPS_PER_CHAR = 100;
+    static final long MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long NANOS_PER_CHAR = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private static final Map<String, RegexTransform> CACHE = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RegexTransform> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder cacheMisses = new LongAdder();
+    private static final LongAdder abandonedMatches = new LongAdder();
+
+    private enum Kind { REPLACE, EXTRACT, MATCHES }
+
+    private final Kind kind;
+    private final Pattern pattern;
+    private final String replacement;
+
+    private RegexTransform(Kind kind, Pattern pattern, String replacement) {
+        this.kind = kind;
+        this.pattern = pattern;
+        this.replacement = replacement;
+    }
+
+    /**
+     * Whether a rule is a regular expression rule
+     */
+    static boolean isRegexRule(String rule) {
+        return rule.startsWith("regex:") || rule.startsWith("extract:") || rule.startsWith("matches:");
+    }
+
+    /**
+     * Compile a regular expression rule; an invalid one is reported and leaves values unchanged
+     */
+    static UnaryOperator<String> compile(String rule) {
+        try {
+            if (rule.startsWith("regex:")) {
+                int arrow = rule.lastIndexOf("->");
+                if (arrow < "regex:".length()) {
+                    System.err.println("Invalid regex transformation, expected regex:pattern->replacement: " + rule);
+                    return TransformFunctions.IDENTITY;
+                }
+                Pattern pattern = Pattern.compile(rule.substring("regex:".length(), arrow));
+                String replacement = rule.substring(arrow + 2);
+                String problem = checkReplacement(replacement, pattern.matcher("").groupCount());
+                if (problem != null) {
+                    System.err.println("Invalid replacement in transformation " + rule + ": " + problem);
+                    return TransformFunctions.IDENTITY;
+                }
+                return new RegexTransform(Kind.REPLACE, pattern, replacement);
+            } else if (rule.startsWith("extract:")) {
+                return new RegexTransform(Kind.EXTRACT, Pattern.compile(rule.substring("extract:".length())), null);
+            }
+            return new RegexTransform(Kind.MATCHES, Pattern.compile(rule.substring("matches:".length())), null);
+        } catch (PatternSyntaxException e) {
+            System.err.println("Invalid regular expression in transformation " + rule + ": " + e.getDescription());
+            return TransformFunctions.IDENTITY;
+        }
+    }
+
+    /**
+     * Why Matcher.replaceAll would reject a replacement for a pattern with groupCount
+     * groups, or null when it is valid. Named references are only checked for syntax;
+     * apply leaves the value unchanged when one names a group the pattern lacks.
+     */
+    static String checkReplacement(String replacement, int groupCount) {
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == replacement.length()) {
+                    return "character to be escaped is missing";
+                }
+                i++;
+            } else if (c == '$') {
+                if (i == replacement.length()) {
+                    return "illegal group reference: group index is missing";
+                }
+                char next = replacement.charAt(i);
+                if (next == '{') {
+                    int end = replacement.indexOf('}', i);
+                    if (end < 0 || end == i + 1 || !Character.isLetter(replacement.charAt(i + 1))) {
+                        return "illegal named group reference";
+                    }
+                    i = end + 1;
+                } else if (next >= '0' && next <= '9') {
+                    // Further digits extend the reference only while that group exists, so only the first can fail
+                    if (next - '0' > groupCount) {
+                        return "no group " + (next - '0');
+                    }
+                    i++;
+                } else {
+                    return "illegal group reference";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compile a regular expression rule through the shared cache
+     */
+    static UnaryOperator<String> cached(String rule) {
+        synchronized (CACHE) {
+            RegexTransform transform = CACHE.get(rule);
+            if (transform != null) {
+                cacheHits.increment();
+                return transform;
+            }
+        }
+        cacheMisses.increment();
+        UnaryOperator<String> compiled = compile(rule);
+        if (compiled instanceof RegexTransform) {
+            synchronized (CACHE) {
+                CACHE.put(rule, (RegexTransform) compiled);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Counters of the shared cache and of matches abandoned by the step and time limits
+     */
+    static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (CACHE) {
+            stats.put("cachedPatterns", CACHE.size());
+        }
+        stats.put("maxCachedPatterns", CACHE_SIZE);
+        stats.put("cacheHits", cacheHits.sum());
+        stats.put("cacheMisses", cacheMisses.sum());
+        stats.put("abandonedMatches", abandonedMatches.sum());
+        return stats;
+    }
+
+    @Override
+    public String apply(String value) {
+        Matcher matcher = pattern.matcher(new GuardedText(value));
+        try {
+            switch (kind) {
+                case REPLACE:
+                    return matcher.replaceAll(replacement);
+                case EXTRACT:
+                    if (!matcher.find()) {
+                        return null;
+                    }
+                    return matcher.groupCount() > 0 ? matcher.group(1) : matcher.group();
+                default:
+                    return matcher.matches() ? value : null;
+            }
+        } catch (MatchLimitExceeded e) {
+            abandonedMatches.increment();
+            return null;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // A named group reference to a group the pattern does not have
+            return value;
+        }
+    }
+
+    private static final class MatchLimitExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MatchLimitExceeded() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Text that fails the match once the matcher has read too many characters or taken
+     * too long; every backtracking step reads characters again
+     */
+    private static final class GuardedText implements CharSequence {
+        private final String text;
+        private final long maxSteps;
+        private final long deadline;
+        private long steps;
+
+        GuardedText(String text) {
+            this(text, MAX_STEPS + STEPS_PER_CHAR * text.length(),
+                    System.nanoTime() + MAX_NANOS + NANOS_PER_CHAR * text.length());
+        }
+
+        private GuardedText(String text, long maxSteps, long deadline) {
+            this.text = text;
+            this.maxSteps = maxSteps;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++steps > maxSteps || ((steps & 0xFFF) == 0 && System.nanoTime() > deadline)) {
+                throw new MatchLimitExceeded();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,780 @@
+package com.bitsevn.transformer.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import com.bitsevn.transformer.service.CompiledTransformationPlan.ArrayRule;
+import com.bitsevn.transformer.service.CompiledTransformationPlan.NestedRule;
+import com.bitsevn.transformer.service.CompiledTransformationPlan.PropertyRule;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Streaming engine that evaluates property, array and nested property mappings in a
+ * single forward pass over an XMLStreamReader, without materializing a Document.
+ *
+ * Start tags are matched with the plan's PathTrie, the same matcher the DOM engine walks
+ * its tree with: the first path step matches anywhere in the document, intermediate steps
+ * select the first (or indexed) matching child and the last step selects every matching
+ * child. Property values are collected as text while
+ * streaming; only elements selected by array and nested mappings are buffered, one
+ * detached fragment at a time, and converted with the same helpers the DOM engine uses
+ * so both engines produce identical JSON. Attribute paths are read from the start tag
+ * and text() paths from the text directly inside the element, so neither buffers it.
+ *
+ * Elements no path step can select or bind are skipped: while no element is buffered or
+ * captured, an element the plan's PathTrie reports as irrelevant is not passed to the
+ * matcher, and text inside it is never read into a String. Its child elements are still
+ * checked, against the first steps and open "//" steps of the plan, which may match
+ * inside it; content they match is not counted as skipped.
+ *
+ * The pass stops reading once no mapping can change the result: every property has its
+ * value or can no longer match, and every array and nested mapping can no longer match,
+ * because an element its path binds has ended, and has its matches converted. A path
+ * like "order/items/item" is done when the bound items element ends; one whose first
+ * step is its last, like "item", can match anywhere and keeps the pass reading. The rest
+ * of the document is then neither parsed nor checked for well-formedness.
+ */
+final class StaxTransformationEngine {
+
+    private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private final XmlToJsonTransformer transformer;
+    private final XMLInputFactory inputFactory;
+
+    StaxTransformationEngine(XmlToJsonTransformer transformer) {
+        this.transformer = transformer;
+        this.inputFactory = XMLInputFactory.newInstance();
+        this.inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        try {
+            // CDATA sections must stay distinguishable from text to mirror the DOM node structure
+            this.inputFactory.setProperty(REPORT_CDATA_EVENT, Boolean.TRUE);
+        } catch (IllegalArgumentException e) {
+            // Property not supported by this StAX implementation; CDATA is reported as text
+        }
+    }
+
+    /**
+     * Transform an XML source into the JSON tree described by a compiled plan. A byte
+     * stream source is decoded by the parser from its XML declaration.
+     */
+    ObjectNode transform(InputSource input, CompiledTransformationPlan plan) throws Exception {
+        return run(input, plan, false).assemble();
+    }
+
+    /**
+     * Transform an XML source and write the result with the plan's output layout
+     */
+    void write(InputSource input, CompiledTransformationPlan plan, JsonGenerator generator) throws Exception {
+        Pass pass = run(input, plan, true);
+        try {
+            transformer.writeSlots(generator, plan, pass.slotValues());
+        } catch (Exception e) {
+            throw new Exception("Error during XML to JSON transformation: " + e.getMessage(), e);
+        }
+    }
+
+    private Pass run(InputSource input, CompiledTransformationPlan plan, boolean streaming) throws Exception {
+        Pass pass = new Pass(plan, transformer.newFragmentDocument(), streaming);
+        XMLStreamReader reader = input.getCharacterStream() != null
+                ? inputFactory.createXMLStreamReader(input.getCharacterStream())
+                : inputFactory.createXMLStreamReader(input.getByteStream());
+        try {
+            pass.run(reader);
+        } finally {
+            reader.close();
+        }
+        transformer.recordNavigation(pass.cursor);
+        transformer.recordProjection(pass.skippedElements, pass.skippedCharacters, pass.stoppedEarly);
+        return pass;
+    }
+
+    /**
+     * State of a single transformation pass
+     */
+    private final class Pass {
+
+        private final Document fragmentOwner;
+        private final PathTrie.Cursor cursor;
+        private final List<PropertyTarget> propertyTargets = new ArrayList<>();
+        private final List<ElementTarget> arrayTargets = new ArrayList<>();
+        private final List<ElementTarget> nestedTargets = new ArrayList<>();
+        private final PropertyTarget[] propertyTargetsByPath;
+        private final ElementTarget[] elementTargetsByPath;
+        private final PathTrie trie;
+        private final JsonOutputLayout outputLayout;
+
+        private final List<TextCapture> textCaptures = new ArrayList<>();
+        private final Deque<PendingItem> pendingItems = new ArrayDeque<>();
+        private final Deque<Element> openElements = new ArrayDeque<>();
+        private final StringBuilder pendingText = new StringBuilder();
+        private int depth;
+
+        // Open elements passed to skipElement, by depth. Content is skipped while the innermost
+        // open element was skipped; skipStartOffset is where that stretch of content began and
+        // lastSkippedOffset where the last event inside it ended.
+        private final BitSet skippedAtDepth = new BitSet();
+        private long skipStartOffset;
+        private long lastSkippedOffset;
+        private long skippedElements;
+        private long skippedCharacters;
+
+        // Mappings that can still change the result, by path: properties without a value and
+        // array or nested mappings whose path is not exhausted
+        private final boolean[] pendingPaths;
+        private int pendingTargets;
+        private int settledExhaustedPaths;
+        private boolean stoppedEarly;
+
+        /**
+         * A streaming pass keeps the field texts of nested mapping items, which are converted
+         * as they are written; otherwise items are converted to objects of the tree
+         */
+        Pass(CompiledTransformationPlan plan, Document fragmentOwner, boolean streaming) {
+            this.fragmentOwner = fragmentOwner;
+            this.trie = plan.getPathTrie();
+            this.outputLayout = plan.getOutputLayout();
+            this.cursor = trie.newCursor();
+            this.propertyTargetsByPath = new PropertyTarget[trie.pathCount()];
+            this.elementTargetsByPath = new ElementTarget[trie.pathCount()];
+
+            for (PropertyRule rule : plan.getPropertyRules()) {
+                PropertyTarget target = new PropertyTarget(rule);
+                propertyTargets.add(target);
+                propertyTargetsByPath[rule.pathId] = target;
+            }
+            for (ArrayRule rule : plan.getArrayRules()) {
+                ElementTarget target = createArrayTarget(rule);
+                arrayTargets.add(target);
+                elementTargetsByPath[rule.pathId] = target;
+            }
+            for (NestedRule rule : plan.getNestedRules()) {
+                ElementTarget target = new ElementTarget(rule.mapping.getXmlPath(), rule.jsonPath, rule.filter, streaming
+                        ? element -> transformer.createStreamedItem(element, rule)
+                        : element -> transformer.createMappedObjectFromFieldMappings(element, rule.fields, rule.fieldLayout));
+                nestedTargets.add(target);
+                elementTargetsByPath[rule.pathId] = target;
+            }
+
+            this.pendingPaths = new boolean[trie.pathCount()];
+            for (int pathId = 0; pathId < trie.pathCount(); pathId++) {
+                if ((propertyTargetsByPath[pathId] != null || elementTargetsByPath[pathId] != null) && canMatch(pathId)) {
+                    pendingPaths[pathId] = true;
+                    pendingTargets++;
+                }
+            }
+        }
+
+        private boolean canMatch(int pathId) {
+            CompiledPath path = trie.path(pathId);
+            return path.isValid() && path.length() > 0;
+        }
+
+        /**
+         * Whether every mapping has its value or can match nothing more, and nothing is
+         * being captured or buffered, so the rest of the document cannot change the result
+         */
+        private boolean complete() {
+            return pendingTargets == 0 && textCaptures.isEmpty() && openElements.isEmpty();
+        }
+
+        private void found(PropertyTarget property) {
+            if (!property.found) {
+                property.found = true;
+                settle(property.rule.pathId);
+            }
+        }
+
+        private void settle(int pathId) {
+            if (pendingPaths[pathId]) {
+                pendingPaths[pathId] = false;
+                pendingTargets--;
+            }
+        }
+
+        /**
+         * Settle the mappings of paths the cursor has reported exhausted since the last call
+         */
+        private void settleExhaustedPaths() {
+            for (; settledExhaustedPaths < cursor.exhaustedCount(); settledExhaustedPaths++) {
+                settle(cursor.exhaustedPath(settledExhaustedPaths));
+            }
+        }
+
+        private ElementTarget createArrayTarget(ArrayRule rule) {
+            if (rule.kind == ArrayRule.Kind.COMPLEX) {
+                return new ElementTarget(rule.source, rule.jsonPath, rule.filter,
+                        element -> transformer.createMappedObject(element, rule.fields, rule.fieldLayout));
+            }
+            // Kept as fragments and converted as they are written, without building a tree first
+            return new ElementTarget(rule.source, rule.jsonPath, null, element -> element);
+        }
+
+        void run(XMLStreamReader reader) throws Exception {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+                        if (canSkip(name)) {
+                            skipElement(reader);
+                        } else {
+                            startElement(reader, name);
+                        }
+                        if (complete()) {
+                            stoppedEarly = true;
+                            return;
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (skippedAtDepth.get(depth)) {
+                            endSkippedElement(reader);
+                        } else {
+                            endElement(reader);
+                        }
+                        if (complete()) {
+                            stoppedEarly = true;
+                            return;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        if (readsText()) {
+                            characters(reader.getText(), false);
+                        } else if (skippedAtDepth.get(depth)) {
+                            lastSkippedOffset = reader.getLocation().getCharacterOffset();
+                        }
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        if (readsText()) {
+                            characters(reader.getText(), true);
+                        } else if (skippedAtDepth.get(depth)) {
+                            lastSkippedOffset = reader.getLocation().getCharacterOffset();
+                        }
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        if (skippedAtDepth.get(depth)) {
+                            lastSkippedOffset = reader.getLocation().getCharacterOffset();
+                        }
+                        if (!openElements.isEmpty()) {
+                            flushText();
+                            openElements.peek().appendChild(fragmentOwner.createComment(reader.getText()));
+                        }
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        if (skippedAtDepth.get(depth)) {
+                            lastSkippedOffset = reader.getLocation().getCharacterOffset();
+                        }
+                        if (!openElements.isEmpty()) {
+                            flushText();
+                            openElements.peek().appendChild(
+                                    fragmentOwner.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Whether an element can be left out: nothing is being buffered or captured and no
+         * path can select or bind it
+         */
+        private boolean canSkip(String name) {
+            return openElements.isEmpty() && textCaptures.isEmpty() && !cursor.isRelevant(name);
+        }
+
+        private boolean readsText() {
+            return !openElements.isEmpty() || !textCaptures.isEmpty();
+        }
+
+        private void skipElement(XMLStreamReader reader) {
+            // The parser reports the offset after the start tag
+            lastSkippedOffset = reader.getLocation().getCharacterOffset();
+            if (!skippedAtDepth.get(depth)) {
+                skipStartOffset = lastSkippedOffset;
+            }
+            depth++;
+            cursor.skipElement();
+            skippedAtDepth.set(depth);
+            skippedElements++;
+        }
+
+        private void endSkippedElement(XMLStreamReader reader) {
+            cursor.endElement();
+            skippedAtDepth.clear(depth);
+            depth--;
+            lastSkippedOffset = reader.getLocation().getCharacterOffset();
+            if (!skippedAtDepth.get(depth)) {
+                countSkippedCharacters();
+            }
+        }
+
+        /**
+         * Count the stretch of skipped content ending at lastSkippedOffset: it ends at the end
+         * tag of an outermost skipped element, or before an element inside a skipped one that
+         * is matched after all, so content matched inside skipped elements is not counted
+         */
+        private void countSkippedCharacters() {
+            long skipped = lastSkippedOffset - skipStartOffset;
+            if (skipStartOffset >= 0 && skipped > 0) {
+                skippedCharacters += skipped;
+            }
+        }
+
+        private void startElement(XMLStreamReader reader, String name) {
+            if (skippedAtDepth.get(depth)) {
+                countSkippedCharacters();
+            }
+            depth++;
+
+            List<ElementTarget> matched = null;
+            int matches = cursor.startElement(name);
+            settleExhaustedPaths();
+            for (int i = 0; i < matches; i++) {
+                int pathId = cursor.matchedPath(i);
+                PropertyTarget property = propertyTargetsByPath[pathId];
+                CompiledPath path = trie.path(pathId);
+                if (!path.selectsElements()) {
+                    startTarget(reader, path, property, elementTargetsByPath[pathId]);
+                } else if (property != null) {
+                    if (!property.found) {
+                        found(property);
+                        PropertyTarget target = property;
+                        textCaptures.add(new TextCapture(depth, false, text -> target.text = text, valueAttribute(reader)));
+                    }
+                } else if (elementTargetsByPath[pathId] != null) {
+                    ItemFilter filter = elementTargetsByPath[pathId].filter;
+                    if (filter != null && filter.rejectsStartTag(attribute -> attributeValue(reader, attribute))) {
+                        // Rejected by its own attributes: neither buffered nor converted
+                        continue;
+                    }
+                    if (matched == null) {
+                        matched = new ArrayList<>();
+                    }
+                    matched.add(elementTargetsByPath[pathId]);
+                }
+            }
+
+            if (matched == null && openElements.isEmpty()) {
+                return;
+            }
+
+            // Buffer this element: either it starts a new fragment or it belongs to one being built
+            flushText();
+            Element element = createElement(reader, name);
+            if (!openElements.isEmpty()) {
+                openElements.peek().appendChild(element);
+            }
+            openElements.push(element);
+
+            if (matched != null) {
+                for (ElementTarget target : matched) {
+                    pendingItems.push(new PendingItem(target, target.reserveSlot(), depth, element));
+                }
+            }
+        }
+
+        /**
+         * Resolve an attribute path from the start tag, or start collecting the own text of
+         * the element for a text() path. Like the DOM engine, an element without the
+         * attribute or without text of its own is not selected.
+         */
+        private void startTarget(XMLStreamReader reader, CompiledPath path, PropertyTarget property, ElementTarget element) {
+            if (path.target() == CompiledPath.Target.ATTRIBUTE) {
+                String value = attributeValue(reader, path.attributeName());
+                if (value == null) {
+                    return;
+                }
+                if (property != null) {
+                    if (!property.found) {
+                        found(property);
+                        property.text = value;
+                    }
+                } else if (element != null) {
+                    element.add(element.reserveSlot(), value);
+                }
+                return;
+            }
+
+            if (property != null) {
+                // An enclosing element that is still open precedes this one in document order
+                if (!property.found) {
+                    long order = cursor.elementCount();
+                    textCaptures.add(new TextCapture(depth, true, text -> offer(property, order, text), null));
+                }
+            } else if (element != null) {
+                int slot = element.reserveSlot();
+                textCaptures.add(new TextCapture(depth, true, text -> element.add(slot, text), null));
+            }
+        }
+
+        private void offer(PropertyTarget property, long order, String text) {
+            property.offer(order, text);
+            if (property.found) {
+                settle(property.rule.pathId);
+            }
+        }
+
+        private void endElement(XMLStreamReader reader) {
+            if (!openElements.isEmpty()) {
+                flushText();
+                openElements.pop();
+            }
+
+            while (!pendingItems.isEmpty() && pendingItems.peek().depth == depth) {
+                PendingItem item = pendingItems.pop();
+                item.target.complete(item.slot, item.element);
+            }
+
+            for (int i = textCaptures.size() - 1; i >= 0; i--) {
+                TextCapture capture = textCaptures.get(i);
+                if (capture.depth == depth) {
+                    capture.complete();
+                    textCaptures.remove(i);
+                }
+            }
+
+            cursor.endElement();
+            settleExhaustedPaths();
+            depth--;
+            if (skippedAtDepth.get(depth)) {
+                // Back inside a skipped element; the parser reports the offset after the end tag
+                skipStartOffset = reader.getLocation().getCharacterOffset();
+            }
+        }
+
+        private void characters(String text, boolean cdata) {
+            for (TextCapture capture : textCaptures) {
+                if (!capture.ownTextOnly || capture.depth == depth) {
+                    capture.append(text);
+                }
+            }
+            if (openElements.isEmpty()) {
+                return;
+            }
+            if (cdata) {
+                flushText();
+                openElements.peek().appendChild(fragmentOwner.createCDATASection(text));
+            } else {
+                pendingText.append(text);
+            }
+        }
+
+        private void flushText() {
+            if (pendingText.length() > 0) {
+                openElements.peek().appendChild(fragmentOwner.createTextNode(pendingText.toString()));
+                pendingText.setLength(0);
+            }
+        }
+
+        private Element createElement(XMLStreamReader reader, String name) {
+            Element element = fragmentOwner.createElementNS(emptyToNull(reader.getNamespaceURI()), name);
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                String attributeName = prefix == null || prefix.isEmpty()
+                        ? XMLConstants.XMLNS_ATTRIBUTE
+                        : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attributeName, reader.getNamespaceURI(i));
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                        qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                        reader.getAttributeValue(i));
+            }
+            return element;
+        }
+
+        /**
+         * Values of all output slots: the transformed text of properties, null where the
+         * default value applies, then array and nested mapping values; mappings without a
+         * value are null
+         */
+        Object[] slotValues() {
+            List<Object> values = new ArrayList<>();
+            for (PropertyTarget target : propertyTargets) {
+                values.add(target.transformedText());
+            }
+            for (ElementTarget target : arrayTargets) {
+                values.add(nonEmpty(target.values()));
+            }
+            for (ElementTarget target : nestedTargets) {
+                values.add(nonEmpty(target.values()));
+            }
+            return values.toArray();
+        }
+
+        /**
+         * Build the JSON tree in the same order as the DOM engine
+         */
+        ObjectNode assemble() throws Exception {
+            ObjectNode rootNode = JsonNodeFactory.instance.objectNode();
+            JsonOutputLayout.Parents parents = outputLayout.parents(rootNode);
+            int slot = 0;
+
+            try {
+                for (PropertyTarget target : propertyTargets) {
+                    Object value = target.resolve();
+                    if (value != null) {
+                        transformer.setJsonValue(rootNode, parents, slot, target.rule.jsonPath, value);
+                    }
+                    slot++;
+                }
+
+                for (ElementTarget target : arrayTargets) {
+                    try {
+                        List<Object> arrayValues = target.values();
+                        if (!arrayValues.isEmpty()) {
+                            transformer.setJsonValue(rootNode, parents, slot, target.jsonPath, arrayValues);
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Error processing array mapping " + target.xmlPath + ": " + e.getMessage());
+                    }
+                    slot++;
+                }
+
+                for (ElementTarget target : nestedTargets) {
+                    try {
+                        List<Object> arrayValues = target.values();
+                        if (!arrayValues.isEmpty()) {
+                            transformer.setJsonValue(rootNode, parents, slot, target.jsonPath, arrayValues);
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Error processing nested property mapping " + target.xmlPath + ": " + e.getMessage());
+                    }
+                    slot++;
+                }
+            } catch (Exception e) {
+                throw new Exception("Error during XML to JSON transformation: " + e.getMessage(), e);
+            }
+
+            return rootNode;
+        }
+    }
+
+    /**
+     * Property mapping evaluated against the first element its path selects
+     */
+    private static final class PropertyTarget {
+        private final PropertyRule rule;
+        private boolean found;
+        private String text;
+        private long order = Long.MAX_VALUE;
+
+        PropertyTarget(PropertyRule rule) {
+            this.rule = rule;
+        }
+
+        /**
+         * Offer the own text of a text() match; the match that started first wins, as
+         * elements complete in a different order than they start when they nest
+         */
+        void offer(long matchOrder, String matchText) {
+            if (matchOrder < order) {
+                order = matchOrder;
+                found = true;
+                text = matchText;
+            }
+        }
+
+        Object resolve() {
+            return rule.value(transformedText());
+        }
+
+        /**
+         * Matched text after the transformation, or null when the default value applies
+         */
+        String transformedText() {
+            if (!found) {
+                return null;
+            }
+            try {
+                return rule.transformed(text);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Array or nested mapping that converts every element its path selects and its
+     * filter accepts
+     */
+    private static final class ElementTarget {
+        private final String xmlPath;
+        private final String[] jsonPath;
+        private final ItemFilter filter;
+        private final ElementConverter converter;
+        private final List<Object> slots = new ArrayList<>();
+        private int failedSlot = Integer.MAX_VALUE;
+
+        ElementTarget(String xmlPath, String[] jsonPath, ItemFilter filter, ElementConverter converter) {
+            this.xmlPath = xmlPath;
+            this.jsonPath = jsonPath;
+            this.filter = filter;
+            this.converter = converter;
+        }
+
+        /**
+         * Reserve the output position of a match when its start tag is seen, so values
+         * keep document order even when matches nest
+         */
+        int reserveSlot() {
+            slots.add(null);
+            return slots.size() - 1;
+        }
+
+        void complete(int slot, Element element) {
+            if (slot > failedSlot || (filter != null && !filter.accepts(element))) {
+                return;
+            }
+            try {
+                slots.set(slot, converter.convert(element));
+            } catch (Exception e) {
+                // Like the DOM engine, keep the values extracted before the failing element
+                System.err.println("Error extracting array from XML path " + xmlPath + ": " + e.getMessage());
+                failedSlot = slot;
+            }
+        }
+
+        /**
+         * Fill a reserved slot with an attribute value or own text, which need no conversion
+         */
+        void add(int slot, String value) {
+            slots.set(slot, value);
+        }
+
+        List<Object> values() {
+            List<Object> values = new ArrayList<>();
+            int limit = Math.min(failedSlot, slots.size());
+            for (int i = 0; i < limit; i++) {
+                if (slots.get(i) != null) {
+                    values.add(slots.get(i));
+                }
+            }
+            return values;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ElementConverter {
+        Object convert(Element element) throws Exception;
+    }
+
+    /**
+     * Text collected for a mapping while its element is open: the whole text content, or
+     * only the text directly inside the element for text() paths
+     */
+    private static final class TextCapture {
+        private final int depth;
+        private final boolean ownTextOnly;
+        private final Consumer<String> sink;
+        private final String valueAttribute;
+        private final StringBuilder text = new StringBuilder();
+        private boolean hasText;
+
+        TextCapture(int depth, boolean ownTextOnly, Consumer<String> sink, String valueAttribute) {
+            this.depth = depth;
+            this.ownTextOnly = ownTextOnly;
+            this.sink = sink;
+            this.valueAttribute = valueAttribute;
+        }
+
+        void append(String chunk) {
+            text.append(chunk);
+            hasText = true;
+        }
+
+        /**
+         * Hand over the value when the element ends; a text() match without text of its
+         * own has no value
+         */
+        void complete() {
+            if (valueAttribute != null) {
+                sink.accept(valueAttribute);
+            } else if (!ownTextOnly || hasText) {
+                sink.accept(text.toString());
+            }
+        }
+    }
+
+    /**
+     * Matched element whose conversion waits for its end tag
+     */
+    private static final class PendingItem {
+        private final ElementTarget target;
+        private final int slot;
+        private final int depth;
+        private final Element element;
+
+        PendingItem(ElementTarget target, int slot, int depth, Element element) {
+            this.target = target;
+            this.slot = slot;
+            this.depth = depth;
+            this.element = element;
+        }
+    }
+
+    /**
+     * Unprefixed "value" attribute, which the DOM engine prefers over text content
+     */
+    private static String valueAttribute(XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            if ((prefix == null || prefix.isEmpty()) && "value".equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Value of the attribute with a qualified name on the current start tag, or null.
+     * Namespace declarations count as attributes, as they do in the DOM.
+     */
+    private static String attributeValue(XMLStreamReader reader, String name) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (name.equals(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+            String prefix = name.length() > XMLConstants.XMLNS_ATTRIBUTE.length()
+                    ? name.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1)
+                    : null;
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String declared = emptyToNull(reader.getNamespacePrefix(i));
+                if (prefix == null ? declared == null : prefix.equals(declared)) {
+                    return reader.getNamespaceURI(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Object> nonEmpty(List<Object> values) {
+        return values.isEmpty() ? null : values;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
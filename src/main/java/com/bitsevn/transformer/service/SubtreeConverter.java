@@ -0,0 +1,223 @@
+package com.bitsevn.transformer.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Schema-free conversion of an XML subtree to JSON, used for the items of simple array
+ * mappings, for fields without a mapping of their own and for generic transformations.
+ *
+ * The conversion only depends on the subtree itself:
+ * - an element whose only child is a text node becomes that text
+ * - an element with any other children becomes an object with a field per child element
+ *   name, in order of the first child with that name; a name used by one child holds the
+ *   value of that child, a name used by several children holds an array of their values
+ *   in document order, whether or not they are adjacent. Text, CDATA, comments and
+ *   attributes at this level are not part of the object.
+ * - an element without children becomes its unprefixed "value" attribute if it has one,
+ *   otherwise the empty string
+ *
+ * A subtree can be written to a generator in one pass without building it, or built as
+ * a tree once, each node created directly in its parent. Both walk the subtree with an
+ * explicit stack rather than recursion, so deeply nested documents cannot overflow the
+ * thread stack; a subtree nested deeper than the maximum depth fails to convert instead.
+ */
+final class SubtreeConverter {
+
+    /**
+     * Default maximum number of nested element levels in a converted subtree
+     */
+    static final int DEFAULT_MAX_DEPTH = 10_000;
+
+    private final int maxDepth;
+
+    SubtreeConverter(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("Maximum subtree depth must be at least 1: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Value of a node: a String or an ObjectNode for elements, the value of text and
+     * attribute nodes, null for other nodes
+     */
+    Object toValue(Node node) {
+        if (!isObject(node)) {
+            return scalarValue(node);
+        }
+        ObjectNode root = JsonNodeFactory.instance.objectNode();
+        // Objects are created in their parent in field order when the parent is filled in,
+        // so they can be filled in any order afterwards
+        Deque<PendingObject> pending = new ArrayDeque<>();
+        pending.push(new PendingObject(node, root, 1));
+        while (!pending.isEmpty()) {
+            PendingObject current = pending.pop();
+            for (Map.Entry<String, List<Element>> field : ChildElementIndex.groupChildren(current.element).entrySet()) {
+                List<Element> values = field.getValue();
+                if (values.size() == 1) {
+                    Element child = values.get(0);
+                    if (isObject(child)) {
+                        pending.push(new PendingObject(child, current.object.putObject(field.getKey()), childLevel(current.level)));
+                    } else {
+                        current.object.put(field.getKey(), scalarValue(child));
+                    }
+                } else {
+                    ArrayNode array = current.object.putArray(field.getKey());
+                    for (Element child : values) {
+                        if (isObject(child)) {
+                            pending.push(new PendingObject(child, array.addObject(), childLevel(current.level)));
+                        } else {
+                            array.add(scalarValue(child));
+                        }
+                    }
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Write the value toValue builds for a node, without building it
+     */
+    void write(JsonGenerator generator, Node node) throws IOException {
+        if (!isObject(node)) {
+            writeLeaf(generator, node);
+            return;
+        }
+        Deque<OpenObject> open = new ArrayDeque<>();
+        generator.writeStartObject();
+        open.push(new OpenObject(node));
+        while (!open.isEmpty()) {
+            OpenObject current = open.peek();
+            if (current.values == null || current.next == current.values.size()) {
+                if (current.values != null && current.values.size() > 1) {
+                    generator.writeEndArray();
+                }
+                if (!current.fields.hasNext()) {
+                    generator.writeEndObject();
+                    open.pop();
+                    continue;
+                }
+                Map.Entry<String, List<Element>> field = current.fields.next();
+                generator.writeFieldName(field.getKey());
+                current.values = field.getValue();
+                current.next = 0;
+                if (current.values.size() > 1) {
+                    generator.writeStartArray();
+                }
+                continue;
+            }
+            Element child = current.values.get(current.next++);
+            if (isObject(child)) {
+                childLevel(open.size());
+                generator.writeStartObject();
+                open.push(new OpenObject(child));
+            } else {
+                writeLeaf(generator, child);
+            }
+        }
+    }
+
+    /**
+     * Text of a node without element structure: the value of text and attribute nodes,
+     * and the "value" attribute or text content of an element
+     */
+    static String leafValue(Node node) {
+        if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.ATTRIBUTE_NODE) {
+            return node.getNodeValue();
+        } else if (node.getNodeType() == Node.ELEMENT_NODE) {
+            Element element = (Element) node;
+            if (element.hasAttribute("value")) {
+                return element.getAttribute("value");
+            }
+            return element.getTextContent();
+        }
+        return null;
+    }
+
+    /**
+     * Level of a child of an element at the given level, rejecting levels past the maximum
+     */
+    private int childLevel(int level) {
+        if (level >= maxDepth) {
+            throw new IllegalStateException("XML subtree is nested deeper than " + maxDepth + " levels");
+        }
+        return level + 1;
+    }
+
+    /**
+     * Whether a node converts to an object: an element with children other than a single text node
+     */
+    private static boolean isObject(Node node) {
+        if (node.getNodeType() != Node.ELEMENT_NODE || !node.hasChildNodes()) {
+            return false;
+        }
+        Node child = node.getFirstChild();
+        return child.getNextSibling() != null || child.getNodeType() != Node.TEXT_NODE;
+    }
+
+    /**
+     * Value of a node that does not convert to an object: the text of an element with a
+     * single text node, otherwise its leaf value
+     */
+    private static String scalarValue(Node node) {
+        if (node.getNodeType() == Node.ELEMENT_NODE && node.hasChildNodes()) {
+            return node.getFirstChild().getNodeValue();
+        }
+        return leafValue(node);
+    }
+
+    private static void writeLeaf(JsonGenerator generator, Node node) throws IOException {
+        String value = scalarValue(node);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeString(value);
+        }
+    }
+
+    /**
+     * Element whose object was created in its parent and still has to be filled in
+     */
+    private static final class PendingObject {
+        private final Node element;
+        private final ObjectNode object;
+        private final int level;
+
+        PendingObject(Node element, ObjectNode object, int level) {
+            this.element = element;
+            this.object = object;
+            this.level = level;
+        }
+    }
+
+    /**
+     * Element whose object is being written: its remaining fields and the values of the current one
+     */
+    private static final class OpenObject {
+        private final Iterator<Map.Entry<String, List<Element>>> fields;
+        private List<Element> values;
+        private int next;
+
+        OpenObject(Node element) {
+            this.fields = ChildElementIndex.groupChildren(element).entrySet().iterator();
+        }
+    }
+}
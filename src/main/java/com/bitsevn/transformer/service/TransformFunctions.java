@@ -0,0 +1,145 @@
+package com.bitsevn.transformer.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Transformation rules of a configuration, each compiled once into a function.
+ *
+ * Entries of the transformations map are compiled when the plan is compiled and shared by
+ * every mapping naming them. A mapping's transform may chain rules with "|", such as
+ * "trim|uppercase", applied left to right. Property mappings name entries of the map;
+ * fields of nested mappings may also give a rule inline, such as "replace:-->_". A
+ * transform that is itself the name of an entry or an inline replace or regular
+ * expression rule is never split, so such a rule containing "|" is only chainable
+ * through the map. A step that leaves no value, such as an "extract:" rule without a
+ * match, ends the chain and the mapping's default value is used.
+ */
+final class TransformFunctions {
+
+    /**
+     * Function of rules that leave values unchanged, left out of chains
+     */
+    static final UnaryOperator<String> IDENTITY = value -> value;
+
+    private static final TransformFunctions NONE = new TransformFunctions(Collections.emptyMap());
+
+    private final Map<String, UnaryOperator<String>> named;
+
+    private TransformFunctions(Map<String, UnaryOperator<String>> named) {
+        this.named = named;
+    }
+
+    /**
+     * Compile every entry of a transformations map
+     */
+    static TransformFunctions compile(Map<String, String> transformations) {
+        if (transformations == null || transformations.isEmpty()) {
+            return NONE;
+        }
+        Map<String, UnaryOperator<String>> named = new HashMap<>();
+        for (Map.Entry<String, String> entry : transformations.entrySet()) {
+            named.put(entry.getKey(), compileRule(entry.getValue()));
+        }
+        return new TransformFunctions(named);
+    }
+
+    /**
+     * Function of a property mapping's transform, chaining entries of the map; null when
+     * it changes nothing. Names without an entry are ignored.
+     */
+    UnaryOperator<String> forMapping(String transform) {
+        return resolve(transform, false);
+    }
+
+    /**
+     * Function of a nested mapping field's transform, chaining entries of the map and
+     * inline rules; null when it changes nothing
+     */
+    UnaryOperator<String> forField(String transform) {
+        return resolve(transform, true);
+    }
+
+    private UnaryOperator<String> resolve(String transform, boolean inlineRules) {
+        if (transform == null || transform.isEmpty()) {
+            return null;
+        }
+        if (named.containsKey(transform) || transform.startsWith("replace:") || RegexTransform.isRegexRule(transform)) {
+            return chain(List.of(lookup(transform, inlineRules)));
+        }
+        List<UnaryOperator<String>> steps = new ArrayList<>();
+        for (String part : transform.split("\\|")) {
+            steps.add(lookup(part.trim(), inlineRules));
+        }
+        return chain(steps);
+    }
+
+    private UnaryOperator<String> lookup(String rule, boolean inlineRules) {
+        UnaryOperator<String> function = named.get(rule);
+        if (function != null) {
+            return function;
+        }
+        if (!inlineRules) {
+            return IDENTITY;
+        }
+        return RegexTransform.isRegexRule(rule) ? RegexTransform.cached(rule) : compileRule(rule);
+    }
+
+    /**
+     * Single function applying steps in order, leaving out those that change nothing
+     */
+    private static UnaryOperator<String> chain(List<UnaryOperator<String>> steps) {
+        List<UnaryOperator<String>> applied = new ArrayList<>();
+        for (UnaryOperator<String> step : steps) {
+            if (step != IDENTITY) {
+                applied.add(step);
+            }
+        }
+        if (applied.isEmpty()) {
+            return null;
+        }
+        if (applied.size() == 1) {
+            return applied.get(0);
+        }
+        List<UnaryOperator<String>> functions = List.copyOf(applied);
+        return value -> {
+            for (int i = 0; i < functions.size() && value != null; i++) {
+                value = functions.get(i).apply(value);
+            }
+            return value;
+        };
+    }
+
+    /**
+     * Resolve a transformation rule such as "uppercase", "replace:-->" or "regex:\s+-> "
+     * to a function. Unknown or empty rules leave the value unchanged.
+     */
+    static UnaryOperator<String> compileRule(String transformRule) {
+        if (transformRule == null || transformRule.isEmpty()) {
+            return IDENTITY;
+        }
+
+        if ("uppercase".equals(transformRule)) {
+            return String::toUpperCase;
+        } else if ("lowercase".equals(transformRule)) {
+            return String::toLowerCase;
+        } else if ("trim".equals(transformRule)) {
+            return String::trim;
+        } else if (RegexTransform.isRegexRule(transformRule)) {
+            return RegexTransform.compile(transformRule);
+        } else if (transformRule.startsWith("replace:")) {
+            String[] parts = transformRule.substring(8).split("->");
+            if (parts.length == 2) {
+                String target = parts[0];
+                String replacement = parts[1];
+                return value -> value.replace(target, replacement);
+            }
+        }
+
+        return IDENTITY;
+    }
+}
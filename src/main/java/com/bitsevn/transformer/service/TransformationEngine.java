@@ -0,0 +1,34 @@
+package com.bitsevn.transformer.service;
+
+/**
+ * XML processing engine used to evaluate a transformation configuration.
+ */
+public enum TransformationEngine {
+
+    /**
+     * Parses the whole input into a W3C DOM before evaluating mappings (default)
+     */
+    DOM,
+
+    /**
+     * Evaluates all mappings in one forward pass over a StAX event stream,
+     * buffering only the elements that array and nested mappings select
+     */
+    STAX;
+
+    /**
+     * Resolve an engine from its configuration/request name, case-insensitively.
+     * Returns null for a null or blank name so callers can fall back to a default.
+     */
+    public static TransformationEngine fromName(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return null;
+        }
+        for (TransformationEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name.trim())) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown transformation engine: " + name);
+    }
+}
@@ -0,0 +1,459 @@
+package com.bitsevn.transformer.service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Conversion from XML text to a JSON value, resolved once per mapping from its "dataType".
+ * Values that cannot be converted are returned unchanged.
+ *
+ * Each type first validates the text without throwing, so malformed values such as ""
+ * or "N/A" cost no exception. Only text the validation cannot decide on its own, such as
+ * non-ASCII digits, "NaN" or a date with a zone, is handed to the JDK parser, whose
+ * exception then still means the value is malformed.
+ *
+ * A value can be parsed to an object for the JSON tree, or written straight to a
+ * generator. Writing emits the same JSON as the parsed object would, without creating it:
+ * numbers are written as primitives, and bigdecimal, biginteger and date values, which
+ * are written as strings, are written as their own text when it is already in the form
+ * the parsed object prints.
+ */
+enum ValueConverter implements Conversion {
+
+    STRING {
+        @Override
+        public Object parse(String value) {
+            return value;
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            generator.writeString(value);
+            return true;
+        }
+    },
+    INTEGER {
+        @Override
+        public Object parse(String value) {
+            long parsed = parseAsciiLong(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (parsed != NOT_A_NUMBER) {
+                return (int) parsed;
+            }
+            return isAscii(value) ? null : parseOrNull(value, Integer::parseInt);
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            long parsed = parseAsciiLong(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (parsed != NOT_A_NUMBER) {
+                generator.writeNumber((int) parsed);
+                return true;
+            }
+            return super.write(generator, value);
+        }
+    },
+    LONG {
+        @Override
+        public Object parse(String value) {
+            long parsed = parseAsciiLong(value, Long.MIN_VALUE + 1, Long.MAX_VALUE);
+            if (parsed != NOT_A_NUMBER) {
+                return parsed;
+            }
+            // Long.MIN_VALUE itself is left to the JDK parser
+            return isAscii(value) && !isLongMinValue(value)
+                    ? null
+                    : parseOrNull(value, Long::parseLong);
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            long parsed = parseAsciiLong(value, Long.MIN_VALUE + 1, Long.MAX_VALUE);
+            if (parsed != NOT_A_NUMBER) {
+                generator.writeNumber(parsed);
+                return true;
+            }
+            return super.write(generator, value);
+        }
+    },
+    DOUBLE {
+        @Override
+        public Object parse(String value) {
+            String text = value.trim();
+            if (isDecimal(text, true)) {
+                return Double.parseDouble(text);
+            }
+            // NaN, Infinity and hexadecimal floating point literals
+            return hasAnyOf(text, "NIxX") ? parseOrNull(value, Double::parseDouble) : null;
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            String text = value.trim();
+            if (isDecimal(text, true)) {
+                generator.writeNumber(Double.parseDouble(text));
+                return true;
+            }
+            return super.write(generator, value);
+        }
+    },
+    BIG_DECIMAL {
+        @Override
+        public Object parse(String value) {
+            if (isDecimal(value, false)) {
+                return new BigDecimal(value);
+            }
+            // Non-ASCII digits and exponents too long to check here
+            return isAscii(value) && !hasAnyOf(value, "eE") ? null : parseOrNull(value, BigDecimal::new);
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            if (isPlainDecimal(value)) {
+                generator.writeString(value);
+                return true;
+            }
+            return super.write(generator, value);
+        }
+    },
+    BIG_INTEGER {
+        @Override
+        public Object parse(String value) {
+            if (isInteger(value)) {
+                return new BigInteger(value);
+            }
+            return isAscii(value) ? null : parseOrNull(value, BigInteger::new);
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            if (isPlainInteger(value)) {
+                generator.writeString(value);
+                return true;
+            }
+            return super.write(generator, value);
+        }
+    },
+    BOOLEAN {
+        @Override
+        public Object parse(String value) {
+            return Boolean.parseBoolean(value);
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            generator.writeBoolean(Boolean.parseBoolean(value));
+            return true;
+        }
+    },
+    DATE {
+        @Override
+        public Object parse(String value) {
+            if (value.length() == 10 && IsoDates.hasDatePrefix(value)) {
+                return IsoDates.localDate(value);
+            }
+            // Longer years and dates with an offset
+            if (value.length() > 10 && (IsoDates.hasDatePrefix(value) || value.charAt(0) == '+' || value.charAt(0) == '-')) {
+                return parseOrNull(value, text -> LocalDate.parse(text, DateTimeFormatter.ISO_DATE));
+            }
+            return null;
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            // A valid yyyy-MM-dd date prints as itself
+            if (value.length() == 10 && IsoDates.hasDatePrefix(value)) {
+                if (!IsoDates.isDate(value)) {
+                    return false;
+                }
+                generator.writeString(value);
+                return true;
+            }
+            return super.write(generator, value);
+        }
+    },
+    DATE_TIME {
+        @Override
+        public Object parse(String value) {
+            if (IsoDates.isDateTime(value)) {
+                return IsoDates.localDateTime(value);
+            }
+            // Fractions of a second, offsets, a lowercase t and longer years
+            if ((value.length() >= 16 && IsoDates.hasDatePrefix(value)
+                    && (value.charAt(10) == 'T' || value.charAt(10) == 't'))
+                    || (!value.isEmpty() && (value.charAt(0) == '+' || value.charAt(0) == '-'))) {
+                return parseOrNull(value, text -> LocalDateTime.parse(text, DateTimeFormatter.ISO_DATE_TIME));
+            }
+            return null;
+        }
+
+        @Override
+        public boolean write(JsonGenerator generator, String value) throws IOException {
+            // LocalDateTime prints a fixed-width date-time without zero seconds and the Z
+            if (IsoDates.isDateTime(value)) {
+                generator.writeString(value.substring(0, IsoDates.localDateTimeLength(value)));
+                return true;
+            }
+            return super.write(generator, value);
+        }
+    };
+
+    static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    @Override
+    public boolean write(JsonGenerator generator, String value) throws IOException {
+        Object parsed = parse(value);
+        if (parsed == null) {
+            return false;
+        }
+        if (parsed instanceof Integer) {
+            generator.writeNumber((Integer) parsed);
+        } else if (parsed instanceof Long) {
+            generator.writeNumber((Long) parsed);
+        } else if (parsed instanceof Double) {
+            generator.writeNumber((Double) parsed);
+        } else {
+            generator.writeString(parsed.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the converter for a configured data type; unknown types keep the string value
+     */
+    static ValueConverter forDataType(String dataType) {
+        if (dataType == null || dataType.isEmpty()) {
+            return STRING;
+        }
+
+        switch (dataType.toLowerCase()) {
+            case "integer":
+            case "int":
+                return INTEGER;
+            case "long":
+                return LONG;
+            case "double":
+            case "float":
+                return DOUBLE;
+            case "bigdecimal":
+                return BIG_DECIMAL;
+            case "biginteger":
+                return BIG_INTEGER;
+            case "boolean":
+            case "bool":
+                return BOOLEAN;
+            case "date":
+                return DATE;
+            case "datetime":
+                return DATE_TIME;
+            case "string":
+            default:
+                return STRING;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Parser {
+        Object parse(String text);
+    }
+
+    private static Object parseOrNull(String value, Parser parser) {
+        try {
+            return parser.parse(value);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Optionally signed ASCII decimal integer within [min, max], or NOT_A_NUMBER.
+     * Leading zeros are accepted in any number, as by Long.parseLong.
+     */
+    static long parseAsciiLong(String value, long min, long max) {
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i++;
+        }
+        if (i == length) {
+            return NOT_A_NUMBER;
+        }
+        while (i < length - 1 && value.charAt(i) == '0') {
+            i++;
+        }
+        if (length - i > 19) {
+            return NOT_A_NUMBER;
+        }
+        long result = 0;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_A_NUMBER;
+            }
+            if (result > (Long.MAX_VALUE - (c - '0')) / 10) {
+                return NOT_A_NUMBER;
+            }
+            result = result * 10 + (c - '0');
+        }
+        result = negative ? -result : result;
+        return result < min || result > max ? NOT_A_NUMBER : result;
+    }
+
+    /**
+     * Long.MIN_VALUE written with optional leading zeros, which parseAsciiLong cannot return
+     */
+    private static boolean isLongMinValue(String value) {
+        if (!value.startsWith("-")) {
+            return false;
+        }
+        int i = 1;
+        while (i < value.length() && value.charAt(i) == '0') {
+            i++;
+        }
+        return value.startsWith("9223372036854775808", i) && value.length() - i == 19;
+    }
+
+    /**
+     * Optionally signed ASCII digits
+     */
+    private static boolean isInteger(String value) {
+        int i = value.isEmpty() || (value.charAt(0) != '-' && value.charAt(0) != '+') ? 0 : 1;
+        if (i == value.length()) {
+            return false;
+        }
+        for (; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Optionally signed ASCII decimal number with an optional fraction and exponent, and
+     * for doubles an optional f or d suffix
+     */
+    private static boolean isDecimal(String value, boolean typeSuffix) {
+        int length = value.length();
+        if (typeSuffix && length > 1 && "fFdD".indexOf(value.charAt(length - 1)) >= 0) {
+            length--;
+        }
+        int i = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+        int digits = 0;
+        while (i < length && isDigit(value.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < length && value.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            // BigDecimal exponents must fit an int; longer ones are left to the JDK parser
+            if (exponentDigits == 0 || (!typeSuffix && exponentDigits > 9)) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    /**
+     * Optionally negative ASCII integer in the form BigInteger prints: no leading zeros,
+     * no plus sign and no negative zero
+     */
+    private static boolean isPlainInteger(String value) {
+        int start = !value.isEmpty() && value.charAt(0) == '-' ? 1 : 0;
+        int length = value.length() - start;
+        if (length == 0 || (value.charAt(start) == '0' && (length > 1 || start == 1))) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            if (!isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decimal in the form BigDecimal prints: a plain integer part, an optional fraction
+     * of at least one digit, no exponent, and not so small that BigDecimal would print it
+     * in scientific notation
+     */
+    private static boolean isPlainDecimal(String value) {
+        int dot = value.indexOf('.');
+        if (dot < 0) {
+            return isPlainInteger(value);
+        }
+        if (dot == value.length() - 1) {
+            return false;
+        }
+        String integerPart = value.substring(0, dot);
+        boolean zero = integerPart.equals("0") || integerPart.equals("-0");
+        if (!zero && !isPlainInteger(integerPart)) {
+            return false;
+        }
+        int leadingZeros = 0;
+        boolean nonZero = false;
+        for (int i = dot + 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) {
+                return false;
+            }
+            if (c != '0') {
+                nonZero = true;
+            } else if (!nonZero) {
+                leadingZeros++;
+            }
+        }
+        if (!zero) {
+            return true;
+        }
+        // Negative zero loses its sign; BigDecimal switches to scientific notation below 1E-6
+        return nonZero ? leadingZeros <= 5 : integerPart.equals("0") && leadingZeros <= 6;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasAnyOf(String value, String characters) {
+        for (int i = 0; i < value.length(); i++) {
+            if (characters.indexOf(value.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,181 +1,570 @@
 package com.bitsevn.transformer.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.springframework.stereotype.Service;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
-import com.bitsevn.transformer.model.NestedPropertyMapping;
 import com.bitsevn.transformer.model.PropertyFieldMapping;
-import com.bitsevn.transformer.model.PropertyMapping;
 import com.bitsevn.transformer.model.TransformationConfig;
+import com.bitsevn.transformer.service.CompiledTransformationPlan.ArrayRule;
+import com.bitsevn.transformer.service.CompiledTransformationPlan.FieldRule;
+import com.bitsevn.transformer.service.CompiledTransformationPlan.NestedRule;
+import com.bitsevn.transformer.service.CompiledTransformationPlan.PropertyRule;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 @Service
 public class XmlToJsonTransformer {
     
     private final ObjectMapper objectMapper;
-    private final DocumentBuilderFactory documentBuilderFactory;
+    private final ObjectWriter jsonWriter;
+    private final DocumentBuilderPool documentBuilderPool;
+    private final StaxTransformationEngine staxEngine;
+    private final SubtreeConverter subtreeConverter;
+    
+    private final LongAdder navigatedDocuments = new LongAdder();
+    private final LongAdder navigatedElements = new LongAdder();
+    private final LongAdder pathStepMatches = new LongAdder();
+    private final LongAdder prefixHits = new LongAdder();
+    private volatile long lastPrefixHits;
+    private final LongAdder projectedDocuments = new LongAdder();
+    private final LongAdder skippedElements = new LongAdder();
+    private final LongAdder skippedCharacters = new LongAdder();
+    private volatile long lastSkippedCharacters;
+    private final LongAdder stoppedEarly = new LongAdder();
+    
+    // Plans of configurations passed without a plan, least recently used first. Configurations
+    // do not override equals, so they are kept by identity.
+    private static final int MAX_CONFIG_PLANS = 64;
+    private final Map<TransformationConfig, CompiledTransformationPlan> configPlans = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TransformationConfig, CompiledTransformationPlan> eldest) {
+            return size() > MAX_CONFIG_PLANS;
+        }
+    };
     
     public XmlToJsonTransformer() {
-        this.objectMapper = new ObjectMapper();
-        this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        this.documentBuilderFactory.setNamespaceAware(true);
+        this(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+    
+    /**
+     * Create a transformer that keeps at most documentBuilderPoolSize idle DocumentBuilders for reuse
+     */
+    public XmlToJsonTransformer(int documentBuilderPoolSize) {
+        this(documentBuilderPoolSize, SubtreeConverter.DEFAULT_MAX_DEPTH);
+    }
+    
+    /**
+     * Create a transformer that also converts unmapped subtrees nested at most
+     * maxSubtreeDepth element levels deep; deeper subtrees fail to convert
+     */
+    public XmlToJsonTransformer(int documentBuilderPoolSize, int maxSubtreeDepth) {
+        // Streamed output is flushed once at the end, not after every tree written to the generator
+        this.objectMapper = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.jsonWriter = objectMapper.writerWithDefaultPrettyPrinter();
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        this.documentBuilderPool = new DocumentBuilderPool(documentBuilderFactory, documentBuilderPoolSize);
+        this.staxEngine = new StaxTransformationEngine(this);
+        this.subtreeConverter = new SubtreeConverter(maxSubtreeDepth);
+    }
+    
+    /**
+     * Size and usage counters of the DocumentBuilder pool: maxIdle, idle, inUse, hits
+     * (builder reused), misses (builder created), discarded (reset failed) and dropped
+     * (released while the pool was full)
+     */
+    public Map<String, Object> getDocumentBuilderPoolStats() {
+        return documentBuilderPool.getStats();
+    }
+    
+    /**
+     * Counters of path navigation over all transformations: documents, elements visited,
+     * path steps matched and prefix hits, the step matches shared between mappings with a
+     * common path prefix instead of being navigated again for each of them
+     */
+    public Map<String, Object> getPathNavigationStats() {
+        long documents = navigatedDocuments.sum();
+        long hits = prefixHits.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("documents", documents);
+        stats.put("elementsVisited", navigatedElements.sum());
+        stats.put("stepMatches", pathStepMatches.sum());
+        stats.put("prefixHits", hits);
+        stats.put("prefixHitsPerDocument", documents == 0 ? 0 : hits / documents);
+        stats.put("lastDocumentPrefixHits", lastPrefixHits);
+        return stats;
+    }
+    
+    /**
+     * Add the counters of a finished document traversal to the navigation statistics
+     */
+    void recordNavigation(PathTrie.Cursor cursor) {
+        navigatedDocuments.increment();
+        navigatedElements.add(cursor.elementCount());
+        pathStepMatches.add(cursor.stepMatchCount());
+        prefixHits.add(cursor.prefixHitCount());
+        lastPrefixHits = cursor.prefixHitCount();
+    }
+    
+    /**
+     * Counters of the elements the streaming engine skipped because no path step can
+     * select or bind them: documents, skipped elements and skipped characters in total,
+     * per document and in the last document. Characters are the parser's character
+     * offsets over the content and end tags of skipped elements, leaving out elements
+     * inside them that are matched after all. Documents whose reading stopped once no
+     * mapping could change the result count as stoppedEarly; the unread rest is not
+     * counted as skipped.
+     */
+    public Map<String, Object> getProjectionStats() {
+        long documents = projectedDocuments.sum();
+        long characters = skippedCharacters.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("documents", documents);
+        stats.put("skippedElements", skippedElements.sum());
+        stats.put("skippedCharacters", characters);
+        stats.put("skippedCharactersPerDocument", documents == 0 ? 0 : characters / documents);
+        stats.put("lastDocumentSkippedCharacters", lastSkippedCharacters);
+        stats.put("stoppedEarly", stoppedEarly.sum());
+        return stats;
+    }
+    
+    /**
+     * Counters of regular expression transformations: size, hits and misses of the cache
+     * of inline rules shared by all plans, and matches abandoned by the backtracking guard
+     */
+    public Map<String, Object> getRegexStats() {
+        return RegexTransform.getStats();
+    }
+    
+    /**
+     * Add the skip counters of a finished streaming transformation to the projection statistics
+     */
+    void recordProjection(long elements, long characters, boolean stopped) {
+        projectedDocuments.increment();
+        if (stopped) {
+            stoppedEarly.increment();
+        }
+        skippedElements.add(elements);
+        skippedCharacters.add(characters);
+        lastSkippedCharacters = characters;
     }
     
     /**
-     * Transform XML to JSON based on configuration
+     * Transform XML to JSON based on configuration, using the engine selected by the configuration
      */
     public String transformXmlToJson(String xmlInput, TransformationConfig config) throws Exception {
-        Document document = parseXml(xmlInput);
+        return transformXmlToJson(xmlInput, getPlan(config), (TransformationEngine) null);
+    }
+    
+    /**
+     * Transform XML to JSON with an explicit engine; a null engine falls back to the
+     * configuration's "engine" setting and then to the DOM engine
+     */
+    public String transformXmlToJson(String xmlInput, TransformationConfig config, TransformationEngine engine) throws Exception {
+        return transformXmlToJson(xmlInput, getPlan(config), engine);
+    }
+    
+    /**
+     * Compiled plan the configuration based methods use for a configuration instance, so a
+     * configuration used for many documents is compiled once and its plan keeps its
+     * statistics. The plans of the MAX_CONFIG_PLANS most recently used configurations are
+     * kept. A configuration changed in place keeps the plan compiled before the change;
+     * compile it again with CompiledTransformationPlan.compile, or keep it in a
+     * configuration service, which compiles a configuration again when it is replaced.
+     */
+    public CompiledTransformationPlan getPlan(TransformationConfig config) {
+        synchronized (configPlans) {
+            return configPlans.computeIfAbsent(config, CompiledTransformationPlan::compile);
+        }
+    }
+    
+    /**
+     * Transform XML to JSON using a precompiled plan
+     */
+    public String transformXmlToJson(String xmlInput, CompiledTransformationPlan plan) throws Exception {
+        return transformXmlToJson(xmlInput, plan, (TransformationEngine) null);
+    }
+    
+    /**
+     * Transform XML to JSON using a precompiled plan and an explicit engine
+     */
+    public String transformXmlToJson(String xmlInput, CompiledTransformationPlan plan, TransformationEngine engine) throws Exception {
+        return jsonWriter.writeValueAsString(transformXmlToJsonNode(xmlInput, plan, engine));
+    }
+    
+    /**
+     * Transform XML to a JSON object node using a precompiled plan and an explicit engine.
+     * The node can be embedded in a response as is, so it is serialized only once.
+     */
+    public ObjectNode transformXmlToJsonNode(String xmlInput, CompiledTransformationPlan plan, TransformationEngine engine) throws Exception {
+        return transformTree(new InputSource(new StringReader(xmlInput)), plan, engine);
+    }
+    
+    /**
+     * Transform XML to JSON and write the result to a stream as UTF-8, using the engine selected by the plan
+     */
+    public void transformXmlToJson(String xmlInput, CompiledTransformationPlan plan, OutputStream output) throws Exception {
+        transformXmlToJson(xmlInput, plan, null, output);
+    }
+    
+    /**
+     * Transform XML to JSON and write the result to a stream as UTF-8. The JSON is the same
+     * as the String result; it is emitted token by token following the plan's output layout,
+     * so no tree of the whole result is built. The stream is flushed but not closed.
+     */
+    public void transformXmlToJson(String xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   OutputStream output) throws Exception {
+        writeJson(new InputSource(new StringReader(xmlInput)), plan, engine, createGenerator(output));
+    }
+    
+    /**
+     * Transform XML to JSON and write the result to a character sink, which is flushed but not closed
+     */
+    public void transformXmlToJson(String xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   Writer output) throws Exception {
+        writeJson(new InputSource(new StringReader(xmlInput)), plan, engine, createGenerator(output));
+    }
+    
+    /**
+     * Transform an XML byte stream to JSON written to a stream as UTF-8. The character
+     * encoding of the input is detected from its XML declaration. With the StAX engine the
+     * input is read as the output is produced, so neither the XML nor the JSON is held in
+     * memory as a whole. Neither stream is closed.
+     */
+    public void transformXmlToJson(InputStream xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   OutputStream output) throws Exception {
+        writeJson(new InputSource(xmlInput), plan, engine, createGenerator(output));
+    }
+    
+    /**
+     * Transform an XML byte stream to JSON written to a character sink; neither is closed
+     */
+    public void transformXmlToJson(InputStream xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   Writer output) throws Exception {
+        writeJson(new InputSource(xmlInput), plan, engine, createGenerator(output));
+    }
+    
+    /**
+     * Transform encoded XML to JSON written to a stream as UTF-8, without decoding the input to a String
+     */
+    public void transformXmlToJson(byte[] xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   OutputStream output) throws Exception {
+        transformXmlToJson(new ByteArrayInputStream(xmlInput), plan, engine, output);
+    }
+    
+    /**
+     * Transform encoded XML to JSON written to a character sink, without decoding the input to a String
+     */
+    public void transformXmlToJson(byte[] xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   Writer output) throws Exception {
+        transformXmlToJson(new ByteArrayInputStream(xmlInput), plan, engine, output);
+    }
+    
+    /**
+     * Transform the remaining bytes of a buffer to JSON written to a stream as UTF-8.
+     * The buffer's position is left unchanged; heap and direct buffers are read in place.
+     */
+    public void transformXmlToJson(ByteBuffer xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   OutputStream output) throws Exception {
+        transformXmlToJson(new ByteBufferInputStream(xmlInput), plan, engine, output);
+    }
+    
+    /**
+     * Transform the remaining bytes of a buffer to JSON written to a character sink.
+     * The buffer's position is left unchanged.
+     */
+    public void transformXmlToJson(ByteBuffer xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   Writer output) throws Exception {
+        transformXmlToJson(new ByteBufferInputStream(xmlInput), plan, engine, output);
+    }
+    
+    /**
+     * Transform an XML file to JSON written to a stream as UTF-8
+     */
+    public void transformXmlToJson(Path xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   OutputStream output) throws Exception {
+        try (InputStream input = Files.newInputStream(xmlInput)) {
+            transformXmlToJson(input, plan, engine, output);
+        }
+    }
+    
+    /**
+     * Transform an XML file to JSON written to a character sink
+     */
+    public void transformXmlToJson(Path xmlInput, CompiledTransformationPlan plan, TransformationEngine engine,
+                                   Writer output) throws Exception {
+        try (InputStream input = Files.newInputStream(xmlInput)) {
+            transformXmlToJson(input, plan, engine, output);
+        }
+    }
+    
+    /**
+     * Convert a whole XML document to JSON without a configuration, as an object with the
+     * root element name as its only field, using the schema-free subtree conversion
+     */
+    public String transformXmlToGenericJson(String xmlInput) throws Exception {
+        StringWriter output = new StringWriter();
+        writeGenericJson(new InputSource(new StringReader(xmlInput)), createGenerator(output));
+        return output.toString();
+    }
+    
+    /**
+     * Convert an XML byte stream to JSON without a configuration, written to a stream as
+     * UTF-8 in one pass over the parsed document; neither stream is closed
+     */
+    public void transformXmlToGenericJson(InputStream xmlInput, OutputStream output) throws Exception {
+        writeGenericJson(new InputSource(xmlInput), createGenerator(output));
+    }
+    
+    private void writeGenericJson(InputSource source, JsonGenerator output) throws Exception {
+        Element root = parseXml(source).getDocumentElement();
+        try (JsonGenerator generator = output) {
+            generator.writeStartObject();
+            generator.writeFieldName(root.getNodeName());
+            subtreeConverter.write(generator, root);
+            generator.writeEndObject();
+        }
+    }
+    
+    private ObjectNode transformTree(InputSource source, CompiledTransformationPlan plan, TransformationEngine engine) throws Exception {
+        if (resolveEngine(plan, engine) == TransformationEngine.STAX) {
+            return staxEngine.transform(source, plan);
+        }
+        return transformDocument(parseXml(source), plan);
+    }
+    
+    private void writeJson(InputSource source, CompiledTransformationPlan plan, TransformationEngine engine,
+                           JsonGenerator output) throws Exception {
+        try (JsonGenerator generator = output) {
+            if (!plan.getOutputLayout().isStreamable()) {
+                // Overlapping jsonPaths need the tree to resolve which value wins
+                generator.writeTree(transformTree(source, plan, engine));
+            } else if (resolveEngine(plan, engine) == TransformationEngine.STAX) {
+                staxEngine.write(source, plan, generator);
+            } else {
+                writeDocument(parseXml(source), plan, generator);
+            }
+        }
+    }
+    
+    /**
+     * Create a pretty printing generator that leaves the stream open and never completes
+     * a partially written result
+     */
+    private JsonGenerator createGenerator(OutputStream output) throws IOException {
+        return configureGenerator(jsonWriter.createGenerator(output, JsonEncoding.UTF8));
+    }
+    
+    private JsonGenerator createGenerator(Writer output) throws IOException {
+        return configureGenerator(jsonWriter.createGenerator(output));
+    }
+    
+    private static JsonGenerator configureGenerator(JsonGenerator generator) {
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        return generator;
+    }
+    
+    /**
+     * Determine which engine handles a request. XPath mappings are evaluated against the
+     * parsed document, so plans with XPath mappings always run on the DOM engine.
+     */
+    private TransformationEngine resolveEngine(CompiledTransformationPlan plan, TransformationEngine requested) {
+        if (plan.hasXPathMappings()) {
+            return TransformationEngine.DOM;
+        }
+        if (requested != null) {
+            return requested;
+        }
+        return plan.getEngine() != null ? plan.getEngine() : TransformationEngine.DOM;
+    }
+    
+    /**
+     * Apply all mappings of a plan to a parsed document
+     */
+    private ObjectNode transformDocument(Document document, CompiledTransformationPlan plan) throws Exception {
         ObjectNode rootNode = objectMapper.createObjectNode();
+        JsonOutputLayout.Parents parents = plan.getOutputLayout().parents(rootNode);
+        int slot = 0;
         
         try {
+            ChildElementIndex.attach(document);
+            // Select the nodes of every mapping in one traversal
+            NodeList[] selected = selectNodes(document, plan);
+            
             // Process property mappings
-            if (config.getPropertyMappings() != null) {
-                for (PropertyMapping mapping : config.getPropertyMappings()) {
-                    Object value = extractValueFromXml(document, mapping, config);
-                    if (value != null) {
-                        setJsonValue(rootNode, mapping.getJsonPath(), value);
-                    }
+            for (PropertyRule rule : plan.getPropertyRules()) {
+                Object value = extractValueFromXml(document, selected[rule.pathId], rule);
+                if (value != null) {
+                    setJsonValue(rootNode, parents, slot, rule.jsonPath, value);
                 }
+                slot++;
             }
             
             // Handle arrays with enhanced property mapping support
-            if (config.getArrayMappings() != null) {
-                for (Map.Entry<String, String> arrayMapping : config.getArrayMappings().entrySet()) {
-                    String xmlPath = arrayMapping.getKey();
-                    String jsonPath = arrayMapping.getValue();
-                    
-                    try {
-                        // Check if this is a complex array mapping with property definitions
-                        if (xmlPath.contains("|")) {
-                            // Complex array mapping with property definitions
-                            List<Object> arrayValues = extractComplexArrayFromXml(document, xmlPath, config);
-                            if (!arrayValues.isEmpty()) {
-                                setJsonValue(rootNode, jsonPath, arrayValues);
-                            }
-                        } else {
-                            // Simple array mapping (existing behavior)
-                            List<Object> arrayValues = extractArrayFromXml(document, xmlPath, config);
-                            if (!arrayValues.isEmpty()) {
-                                setJsonValue(rootNode, jsonPath, arrayValues);
-                            }
-                        }
-                    } catch (Exception e) {
-                        // Log error but continue processing other mappings
-                        System.err.println("Error processing array mapping " + xmlPath + ": " + e.getMessage());
+            for (ArrayRule rule : plan.getArrayRules()) {
+                try {
+                    // Complex array mappings carry property definitions, simple ones copy whole elements
+                    List<Object> arrayValues = rule.kind == ArrayRule.Kind.SIMPLE
+                            ? extractArrayFromXml(selected[rule.pathId], rule)
+                            : extractComplexArrayFromXml(selected[rule.pathId], rule);
+                    if (!arrayValues.isEmpty()) {
+                        setJsonValue(rootNode, parents, slot, rule.jsonPath, arrayValues);
                     }
+                } catch (Exception e) {
+                    // Log error but continue processing other mappings
+                    System.err.println("Error processing array mapping " + rule.source + ": " + e.getMessage());
                 }
+                slot++;
             }
             
             // Handle nested property mappings (new structured approach)
-            if (config.getNestedPropertyMappings() != null) {
-                for (NestedPropertyMapping nestedMapping : config.getNestedPropertyMappings()) {
-                    try {
-                        List<Object> arrayValues = extractNestedPropertyArrayFromXml(document, nestedMapping, config);
-                        if (!arrayValues.isEmpty()) {
-                            setJsonValue(rootNode, nestedMapping.getJsonPath(), arrayValues);
-                        }
-                    } catch (Exception e) {
-                        // Log error but continue processing other mappings
-                        System.err.println("Error processing nested property mapping " + nestedMapping.getXmlPath() + ": " + e.getMessage());
+            for (NestedRule rule : plan.getNestedRules()) {
+                try {
+                    List<Object> arrayValues = extractNestedPropertyArrayFromXml(selected[rule.pathId], rule);
+                    if (!arrayValues.isEmpty()) {
+                        setJsonValue(rootNode, parents, slot, rule.jsonPath, arrayValues);
                     }
+                } catch (Exception e) {
+                    // Log error but continue processing other mappings
+                    System.err.println("Error processing nested property mapping " + rule.mapping.getXmlPath() + ": " + e.getMessage());
                 }
+                slot++;
             }
         } catch (Exception e) {
             throw new Exception("Error during XML to JSON transformation: " + e.getMessage(), e);
         }
         
-        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
+        return rootNode;
+    }
+    
+    /**
+     * Apply all mappings of a plan to a parsed document, writing the result to a generator
+     */
+    private void writeDocument(Document document, CompiledTransformationPlan plan, JsonGenerator generator) throws Exception {
+        try {
+            ChildElementIndex.attach(document);
+            NodeList[] selected = selectNodes(document, plan);
+            plan.getOutputLayout().write(generator, new DocumentSlots(plan, document, selected));
+        } catch (Exception e) {
+            throw new Exception("Error during XML to JSON transformation: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Write slot values with the plan's output layout. Property slots hold their transformed
+     * text, or null for the default value; array and nested slots hold their items, or null
+     * when they have none. Items of nested mappings are streamed items.
+     */
+    void writeSlots(JsonGenerator generator, CompiledTransformationPlan plan, Object[] values) throws IOException {
+        List<PropertyRule> propertyRules = plan.getPropertyRules();
+        List<NestedRule> nestedRules = plan.getNestedRules();
+        int nestedStart = propertyRules.size() + plan.getArrayRules().size();
+        plan.getOutputLayout().write(generator, new JsonOutputLayout.SlotWriter() {
+            @Override
+            public boolean isPresent(int slot) {
+                if (slot < propertyRules.size()) {
+                    return values[slot] != null || propertyRules.get(slot).defaultValue != null;
+                }
+                return values[slot] != null;
+            }
+            
+            @Override
+            public void write(int slot, JsonGenerator slotGenerator) throws IOException {
+                if (slot < propertyRules.size()) {
+                    writePropertyValue(slotGenerator, propertyRules.get(slot), (String) values[slot]);
+                } else if (slot >= nestedStart) {
+                    MappedItemWriter items = new MappedItemWriter(nestedRules.get(slot - nestedStart));
+                    slotGenerator.writeStartArray();
+                    for (Object item : (List<?>) values[slot]) {
+                        items.write(slotGenerator, item);
+                    }
+                    slotGenerator.writeEndArray();
+                } else {
+                    writeJsonValue(slotGenerator, values[slot]);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Write the value of a property from its transformed text, or its default value when
+     * the text is null
+     */
+    private void writePropertyValue(JsonGenerator generator, PropertyRule rule, String text) throws IOException {
+        if (text != null) {
+            rule.write(generator, text);
+        } else {
+            writeJsonValue(generator, rule.defaultValue);
+        }
     }
     
     /**
      * Extract complex array values from XML with property-to-property mapping
      * Format: "parent/child|prop1:jsonProp1,prop2:jsonProp2"
      */
-    private List<Object> extractComplexArrayFromXml(Document document, String complexXmlPath, TransformationConfig config) {
+    private List<Object> extractComplexArrayFromXml(NodeList nodes, ArrayRule rule) {
         List<Object> arrayValues = new ArrayList<>();
         
         try {
-            // Split the path into XML path and property mappings
-            String[] parts = complexXmlPath.split("\\|");
-            if (parts.length != 2) {
-                System.err.println("Invalid complex XML path format: " + complexXmlPath);
+            if (rule.kind == ArrayRule.Kind.INVALID) {
                 return arrayValues;
             }
             
-            String xmlPath = parts[0];
-            String propertyMappings = parts[1];
-            
-            System.out.println("DEBUG: Processing complex array path: " + xmlPath + " with mappings: " + propertyMappings);
-            
-            // Parse property mappings (format: "prop1:jsonProp1,prop2:jsonProp2")
-            Map<String, String> propMappings = parsePropertyMappings(propertyMappings);
+            System.out.println("DEBUG: Processing complex array path: " + rule.source);
             
-            // Get array elements
-            NodeList nodes = evaluateXPath(document, xmlPath);
-            System.out.println("DEBUG: Found " + nodes.getLength() + " nodes for complex path: " + xmlPath);
+            System.out.println("DEBUG: Found " + nodes.getLength() + " nodes for complex path: " + rule.xmlPath);
             
             for (int i = 0; i < nodes.getLength(); i++) {
                 Node node = nodes.item(i);
                 if (node.getNodeType() == Node.ELEMENT_NODE) {
-                    Object mappedObject = createMappedObject((Element) node, propMappings, config);
+                    Object mappedObject = createMappedObject((Element) node, rule.fields, rule.fieldLayout);
                     if (mappedObject != null) {
                         arrayValues.add(mappedObject);
                     }
                 }
             }
             
-            System.out.println("DEBUG: Created " + arrayValues.size() + " mapped objects for complex path: " + xmlPath);
+            System.out.println("DEBUG: Created " + arrayValues.size() + " mapped objects for complex path: " + rule.xmlPath);
         } catch (Exception e) {
-            System.err.println("Error extracting complex array from XML path " + complexXmlPath + ": " + e.getMessage());
+            System.err.println("Error extracting complex array from XML path " + rule.source + ": " + e.getMessage());
         }
         
         return arrayValues;
     }
     
-    /**
-     * Parse property mappings string into a map
-     * Format: "prop1:jsonProp1,prop2:jsonProp2"
-     */
-    private Map<String, String> parsePropertyMappings(String propertyMappings) {
-        Map<String, String> mappings = new HashMap<>();
-        
-        if (propertyMappings == null || propertyMappings.trim().isEmpty()) {
-            return mappings;
-        }
-        
-        String[] pairs = propertyMappings.split(",");
-        for (String pair : pairs) {
-            String[] keyValue = pair.trim().split(":");
-            if (keyValue.length == 2) {
-                mappings.put(keyValue[0].trim(), keyValue[1].trim());
-            }
-        }
-        
-        return mappings;
-    }
-    
     /**
      * Convert PropertyFieldMapping list to a Map for compatibility
      */
@@ -196,22 +585,22 @@ public class XmlToJsonTransformer {
     /**
      * Create a mapped object from XML element based on property mappings
      */
-    private Object createMappedObject(Element element, Map<String, String> propMappings, TransformationConfig config) {
-        if (propMappings.isEmpty()) {
+    Object createMappedObject(Element element, List<FieldRule> fields, JsonOutputLayout layout) {
+        if (fields.isEmpty()) {
             // No mappings, return the element as is
-            return extractNodeValue(element, config);
+            return extractNodeValue(element);
         }
         
         ObjectNode objectNode = objectMapper.createObjectNode();
+        JsonOutputLayout.Parents parents = layout.parents(objectNode);
+        ChildElementIndex index = ChildElementIndex.of(element);
         
-        for (Map.Entry<String, String> mapping : propMappings.entrySet()) {
-            String xmlProperty = mapping.getKey();
-            String jsonProperty = mapping.getValue();
-            
+        for (int i = 0; i < fields.size(); i++) {
+            FieldRule field = fields.get(i);
             // Extract value from the element
-            Object value = extractPropertyFromElement(element, xmlProperty, config);
+            Object value = extractPropertyFromElement(element, field, index);
             if (value != null) {
-                setJsonValue(objectNode, jsonProperty, value);
+                setJsonValue(objectNode, parents, i, field.jsonField, value);
             }
         }
         
@@ -219,44 +608,24 @@ public class XmlToJsonTransformer {
     }
     
     /**
-     * Extract a specific property value from an XML element
+     * Extract a specific property value from an XML element, looking up the field among its children
      */
-    private Object extractPropertyFromElement(Element element, String propertyName, TransformationConfig config) {
+    private Object extractPropertyFromElement(Element element, FieldRule field, ChildElementIndex index) {
         try {
-            // Check if it's a direct child element
-            NodeList children = element.getElementsByTagName(propertyName);
-            if (children.getLength() > 0) {
-                Node child = children.item(0);
-                return extractNodeValue(child, config);
+            // Child element, or nested child path (e.g., "address/street")
+            Element child = index.select(element, field.xmlFieldPath);
+            if (!field.xmlFieldPath.selectsElements()) {
+                // "@type" or "address/@type", "text()": resolved on the element the steps reach
+                return child != null ? ChildElementIndex.targetValue(child, field.xmlFieldPath) : null;
             }
-            
-            // Check if it's an attribute
-            if (element.hasAttribute(propertyName)) {
-                return element.getAttribute(propertyName);
+            if (child != null) {
+                return extractNodeValue(child);
             }
             
-            // Check if it's a nested path (e.g., "address/street")
-            if (propertyName.contains("/")) {
-                String[] pathParts = propertyName.split("/");
-                Node currentNode = element;
-                
-                for (String part : pathParts) {
-                    if (currentNode.getNodeType() == Node.ELEMENT_NODE) {
-                        Element currentElement = (Element) currentNode;
-                        NodeList partNodes = currentElement.getElementsByTagName(part);
-                        if (partNodes.getLength() > 0) {
-                            currentNode = partNodes.item(0);
-                        } else {
-                            return null;
-                        }
-                    } else {
-                        return null;
-                    }
-                }
-                
-                return extractNodeValue(currentNode, config);
+            // Check if it's an attribute
+            if (element.hasAttribute(field.xmlField)) {
+                return element.getAttribute(field.xmlField);
             }
-            
         } catch (Exception e) {
             // Log error
         }
@@ -267,36 +636,28 @@ public class XmlToJsonTransformer {
     /**
      * Extract value from XML based on property mapping
      */
-    private Object extractValueFromXml(Document document, PropertyMapping mapping, TransformationConfig config) {
+    private Object extractValueFromXml(Document document, NodeList nodes, PropertyRule rule) {
+        return rule.value(extractTextFromXml(document, nodes, rule));
+    }
+    
+    /**
+     * Transformed text of a property mapping, or null when its default value applies
+     */
+    private String extractTextFromXml(Document document, NodeList nodes, PropertyRule rule) {
         try {
-            String xmlPath = mapping.getXmlPath();
-            NodeList nodes = evaluateXPath(document, xmlPath);
-            
+            if (rule.xpath != null) {
+                return rule.transformed(rule.xpath.evaluate(document));
+            }
             if (nodes.getLength() == 0) {
-                return getDefaultValue(mapping, config);
+                return null;
             }
             
             Node node = nodes.item(0);
-            String value = getNodeValue(node);
-            
-            if (value == null || value.trim().isEmpty()) {
-                return getDefaultValue(mapping, config);
-            }
-            
-            // Apply transformations if specified
-            if (mapping.getTransform() != null && config.getTransformations() != null) {
-                String transformRule = config.getTransformations().get(mapping.getTransform());
-                if (transformRule != null) {
-                    value = applyTransformation(value, transformRule);
-                }
-            }
-            
-            // Convert to appropriate data type
-            return convertToDataType(value, mapping.getDataType());
+            return rule.transformed(SubtreeConverter.leafValue(node));
             
         } catch (Exception e) {
-            // Log error and return default value
-            return getDefaultValue(mapping, config);
+            // Log error and fall back to the default value
+            return null;
         }
     }
     
@@ -304,13 +665,13 @@ public class XmlToJsonTransformer {
      * Extract all elements with the same name as an array
      * Useful for explicit array mapping scenarios
      */
-    private List<Object> extractAllElementsByName(Document document, String elementName, TransformationConfig config) {
+    private List<Object> extractAllElementsByName(Document document, String elementName) {
         List<Object> elements = new ArrayList<>();
         try {
             NodeList nodes = document.getElementsByTagName(elementName);
             for (int i = 0; i < nodes.getLength(); i++) {
                 Node node = nodes.item(i);
-                Object value = extractNodeValue(node, config);
+                Object value = extractNodeValue(node);
                 if (value != null) {
                     elements.add(value);
                 }
@@ -324,22 +685,21 @@ public class XmlToJsonTransformer {
     /**
      * Extract array values from XML (simple array handling)
      */
-    private List<Object> extractArrayFromXml(Document document, String xmlPath, TransformationConfig config) {
+    private List<Object> extractArrayFromXml(NodeList nodes, ArrayRule rule) {
         List<Object> arrayValues = new ArrayList<>();
         try {
-            NodeList nodes = evaluateXPath(document, xmlPath);
-            System.out.println("DEBUG: Found " + nodes.getLength() + " nodes for path: " + xmlPath);
+            System.out.println("DEBUG: Found " + nodes.getLength() + " nodes for path: " + rule.xmlPath);
             
             for (int i = 0; i < nodes.getLength(); i++) {
                 Node node = nodes.item(i);
-                Object value = extractNodeValue(node, config);
+                Object value = extractNodeValue(node);
                 if (value != null) {
                     arrayValues.add(value);
                 }
             }
-            System.out.println("DEBUG: Extracted " + arrayValues.size() + " values for path: " + xmlPath);
+            System.out.println("DEBUG: Extracted " + arrayValues.size() + " values for path: " + rule.xmlPath);
         } catch (Exception e) {
-            System.err.println("Error extracting array from XML path " + xmlPath + ": " + e.getMessage());
+            System.err.println("Error extracting array from XML path " + rule.source + ": " + e.getMessage());
         }
         return arrayValues;
     }
@@ -347,19 +707,17 @@ public class XmlToJsonTransformer {
     /**
      * Extract array values from XML for nested property mappings
      */
-    private List<Object> extractNestedPropertyArrayFromXml(Document document, NestedPropertyMapping nestedMapping, TransformationConfig config) {
+    private List<Object> extractNestedPropertyArrayFromXml(NodeList nodes, NestedRule rule) {
         List<Object> arrayValues = new ArrayList<>();
         try {
-            String xmlPath = nestedMapping.getXmlPath();
+            String xmlPath = rule.mapping.getXmlPath();
             System.out.println("DEBUG: Processing nested property array path: " + xmlPath);
-            
-            NodeList nodes = evaluateXPath(document, xmlPath);
             System.out.println("DEBUG: Found " + nodes.getLength() + " nodes for nested property path: " + xmlPath);
             
             for (int i = 0; i < nodes.getLength(); i++) {
                 Node node = nodes.item(i);
                 if (node.getNodeType() == Node.ELEMENT_NODE) {
-                    Object mappedObject = createMappedObjectFromFieldMappings((Element) node, nestedMapping.getProperties(), config);
+                    Object mappedObject = createMappedObjectFromFieldMappings((Element) node, rule.fields, rule.fieldLayout);
                     if (mappedObject != null) {
                         arrayValues.add(mappedObject);
                     }
@@ -368,193 +726,79 @@ public class XmlToJsonTransformer {
             
             System.out.println("DEBUG: Created " + arrayValues.size() + " mapped objects for nested property path: " + xmlPath);
         } catch (Exception e) {
-            System.err.println("Error extracting nested property array from XML path " + nestedMapping.getXmlPath() + ": " + e.getMessage());
+            System.err.println("Error extracting nested property array from XML path " + rule.mapping.getXmlPath() + ": " + e.getMessage());
         }
         return arrayValues;
     }
 
     /**
-     * Create mapped object using PropertyFieldMapping list, honoring dataType, transform, and defaultValue
+     * Create mapped object using compiled field mappings, honoring dataType, transform, and defaultValue
      */
-    private Object createMappedObjectFromFieldMappings(Element element, List<PropertyFieldMapping> fieldMappings, TransformationConfig config) {
-        if (fieldMappings == null || fieldMappings.isEmpty()) {
-            return extractNodeValue(element, config);
-        }
-        ObjectNode objectNode = objectMapper.createObjectNode();
-        for (PropertyFieldMapping fieldMapping : fieldMappings) {
-            String xmlField = fieldMapping.getXmlField();
-            String jsonField = fieldMapping.getJsonField();
-            Object raw = extractPropertyFromElement(element, xmlField, config);
-            String valueStr = raw == null ? null : raw.toString();
-            if (valueStr == null || valueStr.trim().isEmpty()) {
-                Object def = fieldMapping.getDefaultValue();
-                if (def != null) {
-                    Object coerced = convertToDataType(def.toString(), fieldMapping.getDataType());
-                    setJsonValue(objectNode, jsonField, coerced);
-                }
-                continue;
-            }
-            // Apply transformation
-            String transformKey = fieldMapping.getTransform();
-            if (transformKey != null) {
-                String rule = transformKey;
-                if (config.getTransformations() != null && config.getTransformations().containsKey(transformKey)) {
-                    rule = config.getTransformations().get(transformKey);
-                }
-                valueStr = applyTransformation(valueStr, rule);
-            }
-            Object finalValue = convertToDataType(valueStr, fieldMapping.getDataType());
-            setJsonValue(objectNode, jsonField, finalValue);
+    Object createMappedObjectFromFieldMappings(Element element, List<FieldRule> fields, JsonOutputLayout layout) {
+        if (fields.isEmpty()) {
+            return extractNodeValue(element);
         }
-        return objectNode;
+        return mappedObject(fields, layout, resolveFields(element, fields));
     }
     
     /**
-     * Extract value from a single XML node
-     * Enhanced to better handle complex elements and preserve structure
+     * Item of a nested mapping to be written later: the transformed text of every field,
+     * null where the default value applies, or the element itself when there are no fields
      */
-    private Object extractNodeValue(Node node, TransformationConfig config) {
-        if (node.getNodeType() == Node.ELEMENT_NODE) {
-            Element element = (Element) node;
-            if (element.hasChildNodes()) {
-                NodeList children = element.getChildNodes();
-                if (children.getLength() == 1 && children.item(0).getNodeType() == Node.TEXT_NODE) {
-                    return children.item(0).getNodeValue();
-                } else {
-                    // Complex element, create object
-                    ObjectNode objectNode = objectMapper.createObjectNode();
-                    for (int i = 0; i < children.getLength(); i++) {
-                        Node child = children.item(i);
-                        if (child.getNodeType() == Node.ELEMENT_NODE) {
-                            String childName = child.getNodeName();
-                            Object childValue = extractNodeValue(child, config);
-                            if (childValue != null) {
-                                // Handle arrays - if we have multiple children with the same name
-                                if (objectNode.has(childName)) {
-                                    // Convert to array if we encounter duplicate names
-                                    if (objectNode.get(childName).isArray()) {
-                                        ((ArrayNode) objectNode.get(childName)).add(objectMapper.valueToTree(childValue));
-                                    } else {
-                                        // Convert existing single value to array
-                                        ArrayNode arrayNode = objectMapper.createArrayNode();
-                                        arrayNode.add(objectNode.get(childName));
-                                        arrayNode.add(objectMapper.valueToTree(childValue));
-                                        objectNode.set(childName, arrayNode);
-                                    }
-                                } else {
-                                    objectNode.set(childName, objectMapper.valueToTree(childValue));
-                                }
-                            }
-                        }
-                    }
-                    return objectNode;
-                }
-            }
+    Object createStreamedItem(Element element, NestedRule rule) {
+        if (rule.fields.isEmpty()) {
+            return element;
         }
-        return getNodeValue(node);
+        return resolveFields(element, rule.fields);
     }
     
-    /**
-     * Get node value based on node type
-     */
-    private String getNodeValue(Node node) {
-        if (node.getNodeType() == Node.TEXT_NODE) {
-            return node.getNodeValue();
-        } else if (node.getNodeType() == Node.ELEMENT_NODE) {
-            Element element = (Element) node;
-            if (element.hasAttribute("value")) {
-                return element.getAttribute("value");
-            }
-            // Get text content
-            return element.getTextContent();
+    private String[] resolveFields(Element element, List<FieldRule> fields) {
+        String[] texts = new String[fields.size()];
+        ChildElementIndex index = ChildElementIndex.of(element);
+        for (int i = 0; i < texts.length; i++) {
+            FieldRule field = fields.get(i);
+            Object raw = extractPropertyFromElement(element, field, index);
+            texts[i] = field.transformed(raw == null ? null : raw.toString());
         }
-        return null;
+        return texts;
     }
     
-    /**
-     * Convert string value to appropriate data type
-     */
-    private Object convertToDataType(String value, String dataType) {
-        if (dataType == null || dataType.isEmpty()) {
-            return value;
-        }
-        
-        try {
-            switch (dataType.toLowerCase()) {
-                case "integer":
-                case "int":
-                    return Integer.parseInt(value);
-                case "long":
-                    return Long.parseLong(value);
-                case "double":
-                case "float":
-                    return Double.parseDouble(value);
-                case "bigdecimal":
-                    return new BigDecimal(value);
-                case "biginteger":
-                    return new BigInteger(value);
-                case "boolean":
-                case "bool":
-                    return Boolean.parseBoolean(value);
-                case "date":
-                    return LocalDate.parse(value, DateTimeFormatter.ISO_DATE);
-                case "datetime":
-                    return LocalDateTime.parse(value, DateTimeFormatter.ISO_DATE_TIME);
-                case "string":
-                default:
-                    return value;
+    private ObjectNode mappedObject(List<FieldRule> fields, JsonOutputLayout layout, String[] texts) {
+        ObjectNode objectNode = objectMapper.createObjectNode();
+        JsonOutputLayout.Parents parents = layout.parents(objectNode);
+        for (int i = 0; i < texts.length; i++) {
+            FieldRule field = fields.get(i);
+            Object value = field.value(texts[i]);
+            if (value != null) {
+                setJsonValue(objectNode, parents, i, field.jsonField, value);
             }
-        } catch (Exception e) {
-            // Return original value if conversion fails
-            return value;
         }
+        return objectNode;
     }
     
     /**
-     * Apply transformation rule to value
+     * Extract value from a single XML node with the schema-free subtree conversion
      */
-    private String applyTransformation(String value, String transformRule) {
-        if (transformRule == null || transformRule.isEmpty()) {
-            return value;
-        }
-        
-        // Simple transformation examples
-        if ("uppercase".equals(transformRule)) {
-            return value.toUpperCase();
-        } else if ("lowercase".equals(transformRule)) {
-            return value.toLowerCase();
-        } else if ("trim".equals(transformRule)) {
-            return value.trim();
-        } else if (transformRule.startsWith("replace:")) {
-            String[] parts = transformRule.substring(8).split("->");
-            if (parts.length == 2) {
-                return value.replace(parts[0], parts[1]);
-            }
-        }
-        
-        return value;
+    Object extractNodeValue(Node node) {
+        return subtreeConverter.toValue(node);
     }
     
     /**
-     * Get default value for mapping
+     * Set the value of a layout slot in an object, through the parents of the object when
+     * the layout has them and along the slot's path otherwise
      */
-    private Object getDefaultValue(PropertyMapping mapping, TransformationConfig config) {
-        if (mapping.getDefaultValue() != null) {
-            return convertToDataType(mapping.getDefaultValue(), mapping.getDataType());
-        }
-        
-        if (config.getDefaultValues() != null && config.getDefaultValues().containsKey(mapping.getJsonPath())) {
-            return config.getDefaultValues().get(mapping.getJsonPath());
+    void setJsonValue(ObjectNode rootNode, JsonOutputLayout.Parents parents, int slot, String[] pathParts, Object value) {
+        if (parents != null) {
+            putJsonValue(parents.of(slot), parents.fieldName(slot), value);
+        } else {
+            setJsonValue(rootNode, pathParts, value);
         }
-        
-        return null;
     }
     
     /**
      * Set value in JSON object using dot notation path
      */
-    private void setJsonValue(ObjectNode rootNode, String jsonPath, Object value) {
-        String[] pathParts = jsonPath.split("\\.");
+    void setJsonValue(ObjectNode rootNode, String[] pathParts, Object value) {
         ObjectNode currentNode = rootNode;
         
         for (int i = 0; i < pathParts.length - 1; i++) {
@@ -565,7 +809,13 @@ public class XmlToJsonTransformer {
             currentNode = (ObjectNode) currentNode.get(part);
         }
         
-        String lastPart = pathParts[pathParts.length - 1];
+        putJsonValue(currentNode, pathParts[pathParts.length - 1], value);
+    }
+    
+    /**
+     * Set a field of an object to a value
+     */
+    private void putJsonValue(ObjectNode currentNode, String lastPart, Object value) {
         if (value instanceof String) {
             currentNode.put(lastPart, (String) value);
         } else if (value instanceof Integer) {
@@ -579,138 +829,370 @@ public class XmlToJsonTransformer {
         } else if (value instanceof JsonNode) {
             currentNode.set(lastPart, (JsonNode) value);
         } else if (value instanceof List) {
-            currentNode.set(lastPart, objectMapper.valueToTree(value));
+            ArrayNode arrayNode = currentNode.putArray(lastPart);
+            for (Object item : (List<?>) value) {
+                arrayNode.add(toJsonNode(item));
+            }
         } else {
             currentNode.put(lastPart, value.toString());
         }
     }
     
     /**
-     * Parse XML string to Document
+     * Write a value to a generator, with the same JSON types setJsonValue uses
+     */
+    void writeJsonValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof JsonNode) {
+            generator.writeTree((JsonNode) value);
+        } else if (value instanceof List) {
+            generator.writeStartArray();
+            for (Object item : (List<?>) value) {
+                if (item instanceof String) {
+                    generator.writeString((String) item);
+                } else if (item instanceof Node) {
+                    subtreeConverter.write(generator, (Node) item);
+                } else {
+                    generator.writeTree(toJsonNode(item));
+                }
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+    
+    /**
+     * Convert an extracted value to a JSON node without copying existing nodes
      */
-    private Document parseXml(String xmlInput) throws Exception {
-        DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
-        InputSource source = new InputSource(new StringReader(xmlInput));
-        return builder.parse(source);
+    private JsonNode toJsonNode(Object value) {
+        if (value instanceof JsonNode) {
+            return (JsonNode) value;
+        } else if (value instanceof String) {
+            return JsonNodeFactory.instance.textNode((String) value);
+        } else if (value == null) {
+            return JsonNodeFactory.instance.nullNode();
+        } else if (value instanceof Node) {
+            return toJsonNode(subtreeConverter.toValue((Node) value));
+        }
+        return objectMapper.valueToTree(value);
     }
     
     /**
-     * Simple XPath evaluation (for basic path expressions)
-     * Now properly handles array scenarios by returning all matching elements
+     * Create an empty document that owns element fragments built by the streaming engine
      */
-    private NodeList evaluateXPath(Document document, String xpath) {
-        // This is a simplified XPath implementation
-        // In production, you might want to use a proper XPath library
-        if (xpath.startsWith("/")) {
-            xpath = xpath.substring(1);
+    Document newFragmentDocument() throws Exception {
+        DocumentBuilder builder = documentBuilderPool.acquire();
+        try {
+            return builder.newDocument();
+        } finally {
+            documentBuilderPool.release(builder);
         }
-        
-        String[] pathParts = xpath.split("/");
-        Node currentNode = document;
-        
-        // If this is a simple path (no array indexing), return all matching elements
-        if (pathParts.length == 1 && !pathParts[0].contains("[")) {
-            return getChildElements(currentNode, pathParts[0]);
+    }
+    
+    /**
+     * Parse an XML source to a Document with a pooled builder
+     */
+    private Document parseXml(InputSource source) throws Exception {
+        DocumentBuilder builder = documentBuilderPool.acquire();
+        try {
+            return builder.parse(source);
+        } finally {
+            documentBuilderPool.release(builder);
+        }
+    }
+    
+    /**
+     * Select the nodes of every path of a plan in a single preorder walk of the document.
+     * Property mappings only keep their first node and elements failing the filter of an
+     * array or nested mapping are not selected. Attribute paths select the attribute
+     * node of the matched element and text() paths a text node holding its own text;
+     * elements without the attribute or text are not selected.
+     */
+    private NodeList[] selectNodes(Document document, CompiledTransformationPlan plan) {
+        PathTrie trie = plan.getPathTrie();
+        List<List<Node>> selected = new ArrayList<>(trie.pathCount());
+        for (int i = 0; i < trie.pathCount(); i++) {
+            selected.add(new ArrayList<>());
+        }
+        boolean[] firstOnly = new boolean[trie.pathCount()];
+        for (PropertyRule rule : plan.getPropertyRules()) {
+            firstOnly[rule.pathId] = true;
         }
         
-        // For complex paths, navigate to the parent and return all children
-        for (int i = 0; i < pathParts.length - 1; i++) {
-            String part = pathParts[i];
-            if (part.isEmpty()) continue;
-            
-            if (part.contains("[")) {
-                // Handle array indexing like "item[0]"
-                String elementName = part.substring(0, part.indexOf("["));
-                String indexStr = part.substring(part.indexOf("[") + 1, part.indexOf("]"));
-                int index = Integer.parseInt(indexStr);
-                
-                NodeList children = getChildElements(currentNode, elementName);
-                if (children.getLength() > index) {
-                    currentNode = children.item(index);
-                } else {
-                    return new EmptyNodeList();
+        PathTrie.Cursor cursor = trie.newCursor();
+        Node current = document.getDocumentElement();
+        while (current != null) {
+            int matches = cursor.startElement(current.getNodeName());
+            for (int i = 0; i < matches; i++) {
+                int pathId = cursor.matchedPath(i);
+                List<Node> nodes = selected.get(pathId);
+                if (!nodes.isEmpty() && firstOnly[pathId]) {
+                    continue;
                 }
-            } else {
-                NodeList children = getChildElements(currentNode, part);
-                if (children.getLength() > 0) {
-                    currentNode = children.item(0);
+                CompiledPath path = trie.path(pathId);
+                if (path.selectsElements()) {
+                    // Filtered items are dropped here, before any of them is converted
+                    ItemFilter filter = plan.getItemFilter(pathId);
+                    if (filter == null || filter.accepts((Element) current)) {
+                        nodes.add(current);
+                    }
+                } else if (path.target() == CompiledPath.Target.ATTRIBUTE) {
+                    Attr attribute = ((Element) current).getAttributeNode(path.attributeName());
+                    if (attribute != null) {
+                        nodes.add(attribute);
+                    }
                 } else {
-                    return new EmptyNodeList();
+                    String text = ChildElementIndex.ownText((Element) current);
+                    if (text != null) {
+                        nodes.add(document.createTextNode(text));
+                    }
                 }
             }
-        }
-        
-        // For the last part, return all matching elements if no indexing
-        String lastPart = pathParts[pathParts.length - 1];
-        if (lastPart.contains("[")) {
-            // Handle array indexing for the last part
-            String elementName = lastPart.substring(0, lastPart.indexOf("["));
-            String indexStr = lastPart.substring(lastPart.indexOf("[") + 1, lastPart.indexOf("]"));
-            int index = Integer.parseInt(indexStr);
             
-            NodeList children = getChildElements(currentNode, elementName);
-            if (children.getLength() > index) {
-                return new SingleNodeList(children.item(index));
-            } else {
-                return new EmptyNodeList();
+            Node child = firstChildElement(current);
+            if (child != null) {
+                current = child;
+                continue;
             }
-        } else {
-            // Return all matching elements for array processing
-            return getChildElements(currentNode, lastPart);
+            
+            // Close elements until one has a following sibling element
+            while (current != null) {
+                cursor.endElement();
+                Node sibling = nextSiblingElement(current);
+                if (sibling != null) {
+                    current = sibling;
+                    break;
+                }
+                Node parent = current.getParentNode();
+                current = parent != null && parent.getNodeType() == Node.ELEMENT_NODE ? parent : null;
+            }
+        }
+        recordNavigation(cursor);
+        
+        NodeList[] result = new NodeList[selected.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new DynamicNodeList(selected.get(i));
+        }
+        return result;
+    }
+    
+    private static Node firstChildElement(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null && child.getNodeType() != Node.ELEMENT_NODE) {
+            child = child.getNextSibling();
+        }
+        return child;
+    }
+    
+    private static Node nextSiblingElement(Node node) {
+        Node sibling = node.getNextSibling();
+        while (sibling != null && sibling.getNodeType() != Node.ELEMENT_NODE) {
+            sibling = sibling.getNextSibling();
         }
+        return sibling;
     }
     
     /**
-     * Get child elements by tag name
-     * Enhanced to properly find all matching children within a specific context
+     * Slot values of a DOM transformation. Property values are resolved up front; array
+     * items are converted while they are written, only the first one is converted early
+     * to know whether the array has a value at all.
      */
-    private NodeList getChildElements(Node parent, String tagName) {
-        if (parent.getNodeType() == Node.DOCUMENT_NODE) {
-            return ((Document) parent).getElementsByTagName(tagName);
-        } else if (parent.getNodeType() == Node.ELEMENT_NODE) {
-            Element element = (Element) parent;
-            // Use getElementsByTagName to get all descendants, then filter to direct children
-            NodeList allDescendants = element.getElementsByTagName(tagName);
-            List<Node> directChildren = new ArrayList<>();
+    private final class DocumentSlots implements JsonOutputLayout.SlotWriter {
+        private final List<PropertyRule> propertyRules;
+        private final List<ArrayRule> arrayRules;
+        private final List<NestedRule> nestedRules;
+        private final NodeList[] selected;
+        private final Object[] values;
+        
+        DocumentSlots(CompiledTransformationPlan plan, Document document, NodeList[] selected) {
+            this.propertyRules = plan.getPropertyRules();
+            this.arrayRules = plan.getArrayRules();
+            this.nestedRules = plan.getNestedRules();
+            this.selected = selected;
+            this.values = new Object[propertyRules.size() + arrayRules.size() + nestedRules.size()];
             
-            for (int i = 0; i < allDescendants.getLength(); i++) {
-                Node descendant = allDescendants.item(i);
-                // Check if this is a direct child of the current element
-                if (descendant.getParentNode() == element) {
-                    directChildren.add(descendant);
+            for (int slot = 0; slot < propertyRules.size(); slot++) {
+                PropertyRule rule = propertyRules.get(slot);
+                values[slot] = extractTextFromXml(document, selected[rule.pathId], rule);
+            }
+            for (int slot = propertyRules.size(); slot < values.length; slot++) {
+                NodeList nodes = nodes(slot);
+                if (nodes.getLength() > 0 && !isInvalid(slot)) {
+                    values[slot] = isSimpleArray(slot) ? nodes.item(0) : convertItem(slot, nodes.item(0));
                 }
             }
+        }
+        
+        @Override
+        public boolean isPresent(int slot) {
+            if (slot < propertyRules.size()) {
+                return values[slot] != null || propertyRules.get(slot).defaultValue != null;
+            }
+            return values[slot] != null;
+        }
+        
+        @Override
+        public void write(int slot, JsonGenerator generator) throws IOException {
+            if (slot < propertyRules.size()) {
+                writePropertyValue(generator, propertyRules.get(slot), (String) values[slot]);
+                return;
+            }
             
-            return new DynamicNodeList(directChildren);
+            NodeList nodes = nodes(slot);
+            generator.writeStartArray();
+            if (isSimpleArray(slot)) {
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    subtreeConverter.write(generator, nodes.item(i));
+                }
+            } else {
+                int nestedSlot = slot - propertyRules.size() - arrayRules.size();
+                MappedItemWriter items = nestedSlot >= 0 ? new MappedItemWriter(nestedRules.get(nestedSlot)) : null;
+                writeItem(generator, items, values[slot]);
+                for (int i = 1; i < nodes.getLength(); i++) {
+                    Object item = convertItem(slot, nodes.item(i));
+                    if (item == null) {
+                        // Like the tree, keep the items converted before the failing one
+                        break;
+                    }
+                    writeItem(generator, items, item);
+                }
+            }
+            generator.writeEndArray();
+        }
+        
+        private void writeItem(JsonGenerator generator, MappedItemWriter items, Object item) throws IOException {
+            if (items != null) {
+                items.write(generator, item);
+            } else {
+                writeJsonValue(generator, item);
+            }
+        }
+        
+        private NodeList nodes(int slot) {
+            int arraySlot = slot - propertyRules.size();
+            if (arraySlot < arrayRules.size()) {
+                return selected[arrayRules.get(arraySlot).pathId];
+            }
+            return selected[nestedRules.get(arraySlot - arrayRules.size()).pathId];
+        }
+        
+        private boolean isSimpleArray(int slot) {
+            int arraySlot = slot - propertyRules.size();
+            return arraySlot < arrayRules.size() && arrayRules.get(arraySlot).kind == ArrayRule.Kind.SIMPLE;
+        }
+        
+        private boolean isInvalid(int slot) {
+            int arraySlot = slot - propertyRules.size();
+            return arraySlot < arrayRules.size() && arrayRules.get(arraySlot).kind == ArrayRule.Kind.INVALID;
+        }
+        
+        /**
+         * Map one selected element of a complex array or nested mapping; null when it fails
+         */
+        private Object convertItem(int slot, Node node) {
+            int arraySlot = slot - propertyRules.size();
+            if (arraySlot < arrayRules.size()) {
+                ArrayRule rule = arrayRules.get(arraySlot);
+                try {
+                    return createMappedObject((Element) node, rule.fields, rule.fieldLayout);
+                } catch (Exception e) {
+                    System.err.println("Error extracting complex array from XML path " + rule.source + ": " + e.getMessage());
+                    return null;
+                }
+            }
+            NestedRule rule = nestedRules.get(arraySlot - arrayRules.size());
+            try {
+                return createStreamedItem((Element) node, rule);
+            } catch (Exception e) {
+                System.err.println("Error extracting nested property array from XML path " + rule.mapping.getXmlPath() + ": " + e.getMessage());
+                return null;
+            }
         }
-        return new EmptyNodeList();
     }
     
     /**
-     * Simple NodeList implementations for XPath evaluation
+     * Writes streamed items of a nested mapping with the field layout of its rule, each
+     * field converted as it is written
      */
-    private static class EmptyNodeList implements NodeList {
+    private final class MappedItemWriter implements JsonOutputLayout.SlotWriter {
+        private final NestedRule rule;
+        private String[] texts;
+        
+        MappedItemWriter(NestedRule rule) {
+            this.rule = rule;
+        }
+        
+        void write(JsonGenerator generator, Object item) throws IOException {
+            if (item instanceof Node) {
+                subtreeConverter.write(generator, (Node) item);
+                return;
+            }
+            texts = (String[]) item;
+            if (rule.fieldLayout.isStreamable()) {
+                rule.fieldLayout.write(generator, this);
+            } else {
+                // Fields overlapping each other need the tree to resolve which value wins
+                generator.writeTree(mappedObject(rule.fields, rule.fieldLayout, texts));
+            }
+        }
+        
         @Override
-        public Node item(int index) { return null; }
+        public boolean isPresent(int field) {
+            return texts[field] != null || rule.fields.get(field).defaultValue != null;
+        }
+        
         @Override
-        public int getLength() { return 0; }
+        public void write(int field, JsonGenerator generator) throws IOException {
+            FieldRule fieldRule = rule.fields.get(field);
+            if (texts[field] != null) {
+                fieldRule.write(generator, texts[field]);
+            } else {
+                writeJsonValue(generator, fieldRule.defaultValue);
+            }
+        }
     }
     
-    private static class SingleNodeList implements NodeList {
-        private final Node node;
+    /**
+     * Reads the remaining bytes of a buffer through a duplicate, leaving the buffer untouched
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
         
-        public SingleNodeList(Node node) {
-            this.node = node;
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
         }
         
         @Override
-        public Node item(int index) {
-            return index == 0 ? node : null;
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
         }
         
         @Override
-        public int getLength() {
-            return 1;
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+        
+        @Override
+        public int available() {
+            return buffer.remaining();
         }
     }
     
@@ -0,0 +1,576 @@
+package com.bitsevn.transformer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import com.bitsevn.transformer.model.PropertyMapping;
+import com.bitsevn.transformer.model.TransformationConfig;
+import com.bitsevn.transformer.service.CompiledTransformationPlan;
+import com.bitsevn.transformer.service.ConfigurationService;
+import com.bitsevn.transformer.service.TransformationEngine;
+import com.bitsevn.transformer.service.XmlToJsonTransformer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest
+public class CompiledTransformationPlanTest {
+
+    @Autowired
+    private XmlToJsonTransformer transformer;
+
+    @Autowired
+    private ConfigurationService configurationService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final List<String> CORPUS = List.of(
+        "simple-person",
+        "simple-order",
+        "company-employees",
+        "company-projects",
+        "complex-order",
+        "library-books"
+    );
+
+    private String loadXmlFile(String path) throws Exception {
+        ClassPathResource resource = new ClassPathResource(path);
+        return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testCompiledPlanProducesSameJsonAsConfiguration() throws Exception {
+        for (String name : CORPUS) {
+            TransformationConfig config = configurationService.loadConfiguration(name + "-config");
+            CompiledTransformationPlan plan = configurationService.loadPlan(name + "-config");
+            String xml = loadXmlFile("test-data/" + name + ".xml");
+
+            for (TransformationEngine engine : TransformationEngine.values()) {
+                String expected = transformer.transformXmlToJson(xml, config, engine);
+                // Run the plan twice to make sure nothing is consumed by a transformation
+                assertEquals(expected, transformer.transformXmlToJson(xml, plan, engine), name + " with " + engine);
+                assertEquals(expected, transformer.transformXmlToJson(xml, plan, engine), name + " with " + engine);
+            }
+        }
+    }
+
+    @Test
+    void testPlanIsCachedAlongsideConfiguration() throws Exception {
+        CompiledTransformationPlan plan = configurationService.loadPlan("simple-person-config");
+        assertSame(plan, configurationService.loadPlan("simple-person-config"), "Plan should be compiled once");
+        assertSame(configurationService.loadConfiguration("simple-person-config"), plan.getConfig());
+        assertEquals("Simple Person Configuration", plan.getName());
+
+        // Replacing the cached configuration recompiles the plan
+        TransformationConfig replacement = configurationService.loadConfigurationFromJson(
+            "{\"name\":\"replacement\",\"propertyMappings\":[{\"xmlPath\":\"person/name\",\"jsonPath\":\"name\"}]}");
+        configurationService.cacheConfiguration("simple-person-config", replacement);
+        try {
+            CompiledTransformationPlan replaced = configurationService.loadPlan("simple-person-config");
+            assertNotSame(plan, replaced);
+            assertSame(replacement, replaced.getConfig());
+        } finally {
+            configurationService.removeCachedConfiguration("simple-person-config");
+        }
+
+        CompiledTransformationPlan reloaded = configurationService.loadPlan("simple-person-config");
+        assertNotSame(plan, reloaded, "Removing the configuration should drop its plan");
+        assertEquals("Simple Person Configuration", reloaded.getName());
+    }
+
+    @Test
+    void testConfigurationPassedDirectlyIsCompiledOnce() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"direct\","
+            + "\"propertyMappings\":[{\"xmlPath\":\"order/count\",\"jsonPath\":\"count\",\"dataType\":\"integer\"}]"
+            + "}");
+        CompiledTransformationPlan plan = transformer.getPlan(config);
+        assertSame(plan, transformer.getPlan(config), "Plan should be compiled once");
+
+        // The plan keeps its statistics over documents transformed with the configuration
+        transformer.transformXmlToJson("<order><count>N/A</count></order>", config);
+        transformer.transformXmlToJson("<order><count>-</count></order>", config, TransformationEngine.STAX);
+        assertEquals(2L, ((Number) plan.getConversionStats().get(0).get("fallbacks")).longValue());
+
+        // Plans are kept per instance: a change in place needs a plan compiled again
+        config.getPropertyMappings().get(0).setDataType("string");
+        assertSame(plan, transformer.getPlan(config));
+        assertTrue(transformer.transformXmlToJson("<order><count>7</count></order>",
+                CompiledTransformationPlan.compile(config)).contains("\"count\" : \"7\""));
+        TransformationConfig copy = configurationService.loadConfigurationFromJson(objectMapper.writeValueAsString(config));
+        assertNotSame(plan, transformer.getPlan(copy));
+    }
+
+    @Test
+    void testPlanResolvesTransformsConvertersAndDefaults() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"resolved\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/customer\",\"jsonPath\":\"customer.name\",\"transform\":\"upper\"},"
+            + "{\"xmlPath\":\"order/quantity\",\"jsonPath\":\"quantity\",\"dataType\":\"integer\"},"
+            + "{\"xmlPath\":\"order/missing\",\"jsonPath\":\"priority\",\"dataType\":\"integer\",\"defaultValue\":\"5\"},"
+            + "{\"xmlPath\":\"order/code\",\"jsonPath\":\"code\",\"transform\":\"dashes\"}],"
+            + "\"arrayMappings\":{\"order/line|sku:sku|qty:qty\":\"broken\"},"
+            + "\"nestedPropertyMappings\":[{\"xmlPath\":\"order/line\",\"jsonPath\":\"lines\",\"properties\":["
+            + "{\"xmlField\":\"sku\",\"jsonField\":\"sku\",\"transform\":\"lowercase\"},"
+            + "{\"xmlField\":\"qty\",\"jsonField\":\"qty\",\"dataType\":\"int\",\"defaultValue\":1}]}],"
+            + "\"transformations\":{\"upper\":\"uppercase\",\"dashes\":\"replace:-->_\"}"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+
+        String xml = "<order><customer>john</customer><quantity>3</quantity><code>A-B-C</code>"
+                + "<line><sku>ABC</sku><qty>2</qty></line><line><sku>DEF</sku></line></order>";
+        String result = transformer.transformXmlToJson(xml, plan);
+
+        assertTrue(result.contains("\"name\" : \"JOHN\""), "Named transformation should be applied");
+        assertTrue(result.contains("\"quantity\" : 3"), "Integer conversion should be applied");
+        assertTrue(result.contains("\"priority\" : 5"), "Default value should be converted to its data type");
+        assertTrue(result.contains("\"code\" : \"A_B_C\""), "Replace transformation should be applied");
+        assertTrue(result.contains("\"sku\" : \"abc\""), "Inline field transformation should be applied");
+        assertTrue(result.contains("\"qty\" : 1"), "Field default value should be converted to its data type");
+        assertFalse(result.contains("broken"), "Malformed complex array mapping should be skipped");
+        assertEquals(result, transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testTransformsChainLeftToRight() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"chained\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/customer\",\"jsonPath\":\"customer\",\"transform\":\"trim|upper\"},"
+            + "{\"xmlPath\":\"order/code\",\"jsonPath\":\"code\",\"transform\":\"dashes|upper\"},"
+            + "{\"xmlPath\":\"order/code\",\"jsonPath\":\"rawCode\",\"transform\":\"unknown|trim\"}],"
+            + "\"nestedPropertyMappings\":[{\"xmlPath\":\"order/line\",\"jsonPath\":\"lines\",\"properties\":["
+            + "{\"xmlField\":\"sku\",\"jsonField\":\"sku\",\"transform\":\"trim|replace:-->.\"},"
+            + "{\"xmlField\":\"sku\",\"jsonField\":\"pipe\",\"transform\":\"replace:-->|\"}]}],"
+            + "\"transformations\":{\"upper\":\"uppercase\",\"trim\":\"trim\",\"dashes\":\"replace:-->_\"}"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+
+        String xml = "<order><customer>  john </customer><code>a-b</code><line><sku> x-y </sku></line></order>";
+        String result = transformer.transformXmlToJson(xml, plan);
+
+        assertTrue(result.contains("\"customer\" : \"JOHN\""), "Chained named transformations should all apply");
+        assertTrue(result.contains("\"code\" : \"A_B\""), "Chained transformations should apply left to right");
+        assertTrue(result.contains("\"rawCode\" : \"a-b\""), "Unknown names in a chain should be ignored");
+        assertTrue(result.contains("\"sku\" : \"x.y\""), "Fields should chain inline rules");
+        assertTrue(result.contains("\"pipe\" : \" x|y \""), "An inline replace rule should not be split");
+        assertEquals(result, transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testRegexTransformsAndBacktrackingGuard() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"regex\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"contact/phone\",\"jsonPath\":\"phone\",\"transform\":\"digits\"},"
+            + "{\"xmlPath\":\"contact/email\",\"jsonPath\":\"domain\",\"transform\":\"domain|upper\"},"
+            + "{\"xmlPath\":\"contact/code\",\"jsonPath\":\"code\",\"transform\":\"code\",\"defaultValue\":\"NONE\"},"
+            + "{\"xmlPath\":\"contact/text\",\"jsonPath\":\"text\",\"transform\":\"slow\",\"defaultValue\":\"ABANDONED\"},"
+            + "{\"xmlPath\":\"contact/list\",\"jsonPath\":\"list\",\"transform\":\"digits\",\"defaultValue\":\"ABANDONED\"}],"
+            + "\"nestedPropertyMappings\":[{\"xmlPath\":\"contact/ref\",\"jsonPath\":\"refs\",\"properties\":["
+            + "{\"xmlField\":\"@id\",\"jsonField\":\"number\",\"dataType\":\"integer\",\"transform\":\"extract:REF-(\\\\d+)\"}]}],"
+            + "\"transformations\":{\"digits\":\"regex:(\\\\d{3})-(\\\\d{4})->$1$2\",\"domain\":\"extract:@(.+)$\","
+            + "\"upper\":\"uppercase\",\"code\":\"matches:[A-Z]{3}\",\"slow\":\"matches:(a+)+$\"}"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+        long abandonedBefore = ((Number) transformer.getRegexStats().get("abandonedMatches")).longValue();
+
+        String xml = "<contact><phone>555-1234</phone><email>jo@example.com</email><code>abc</code>"
+                + "<text>" + "a".repeat(5000) + "!</text><ref id=\"REF-12\"/><ref id=\"REF-7\"/>"
+                // About 1 MB, read more than 1,000,000 times by a linear pattern
+                + "<list>" + "555-1234 ".repeat(120_000) + "</list></contact>";
+        String result = transformer.transformXmlToJson(xml, plan);
+
+        assertTrue(result.contains("\"phone\" : \"5551234\""), "Regex replacement should use group references");
+        assertTrue(result.contains("\"domain\" : \"EXAMPLE.COM\""), "Extracted groups should chain");
+        assertTrue(result.contains("\"code\" : \"NONE\""), "A value the pattern does not match should take the default");
+        assertTrue(result.contains("\"number\" : 12") && result.contains("\"number\" : 7"), "Inline regex rules should apply to fields");
+        assertTrue(result.contains("\"text\" : \"ABANDONED\""), "Catastrophic backtracking should be abandoned");
+        assertTrue(((Number) transformer.getRegexStats().get("abandonedMatches")).longValue() > abandonedBefore);
+        assertTrue("5551234 ".repeat(120_000).equals(objectMapper.readTree(result).get("list").asText()),
+                "The step limit should grow with the length of the value");
+        assertEquals(result, transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testReplacementWithMissingGroupLeavesValuesUnchanged() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"groups\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/code\",\"jsonPath\":\"code\",\"transform\":\"named\"}],"
+            + "\"nestedPropertyMappings\":[{\"xmlPath\":\"order/line\",\"jsonPath\":\"lines\",\"properties\":["
+            + "{\"xmlField\":\"sku\",\"jsonField\":\"sku\",\"transform\":\"regex:(\\\\d+)->$5\"},"
+            + "{\"xmlField\":\"qty\",\"jsonField\":\"qty\",\"dataType\":\"integer\"}]}],"
+            + "\"transformations\":{\"named\":\"regex:(?<digits>\\\\d+)->${missing}\"}"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+
+        String xml = "<order><code>A-12</code><line><sku>X-1</sku><qty>2</qty></line>"
+                + "<line><sku>Y-22</sku><qty>3</qty></line></order>";
+        String result = transformer.transformXmlToJson(xml, plan);
+        JsonNode json = objectMapper.readTree(result);
+
+        assertEquals("A-12", json.get("code").asText(), "A reference to a missing named group should be ignored");
+        assertEquals(2, json.get("lines").size(), "A reference to a missing group should not drop the array");
+        assertEquals("X-1", json.get("lines").get(0).get("sku").asText());
+        assertEquals(3, json.get("lines").get(1).get("qty").asInt());
+        assertEquals(result, transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testIntegersWithLeadingZerosConvertLikeTheJdkParsers() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"zeros\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"record/a\",\"jsonPath\":\"a\",\"dataType\":\"integer\"},"
+            + "{\"xmlPath\":\"record/b\",\"jsonPath\":\"b\",\"dataType\":\"long\"},"
+            + "{\"xmlPath\":\"record/min\",\"jsonPath\":\"min\",\"dataType\":\"long\"},"
+            + "{\"xmlPath\":\"record/zero\",\"jsonPath\":\"zero\",\"dataType\":\"integer\"},"
+            + "{\"xmlPath\":\"record/over\",\"jsonPath\":\"over\",\"dataType\":\"integer\"}]"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+
+        String xml = "<record><a>00000000000000000000042</a><b>000000000000000000000000007</b>"
+                + "<min>-0009223372036854775808</min><zero>-0000000000000000000000</zero>"
+                + "<over>0000000000000000000002147483648</over></record>";
+        String result = transformer.transformXmlToJson(xml, plan);
+        JsonNode json = objectMapper.readTree(result);
+
+        assertEquals(42, json.get("a").asInt());
+        assertTrue(json.get("a").isInt(), "Leading zeros should not turn an integer into text");
+        assertEquals(7L, json.get("b").asLong());
+        assertTrue(json.get("b").isNumber());
+        assertEquals(Long.MIN_VALUE, json.get("min").asLong());
+        assertEquals(0, json.get("zero").asInt());
+        assertTrue(json.get("zero").isInt());
+        assertEquals("0000000000000000000002147483648", json.get("over").asText(), "Values out of range stay text");
+        assertEquals(result, transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testMalformedValuesAreKeptAndCountedPerMapping() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"conversions\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"record/count\",\"jsonPath\":\"count\",\"dataType\":\"integer\"},"
+            + "{\"xmlPath\":\"record/signed\",\"jsonPath\":\"signed\",\"dataType\":\"integer\"},"
+            + "{\"xmlPath\":\"record/total\",\"jsonPath\":\"total\",\"dataType\":\"long\",\"defaultValue\":\"0\"},"
+            + "{\"xmlPath\":\"record/ratio\",\"jsonPath\":\"ratio\",\"dataType\":\"double\"},"
+            + "{\"xmlPath\":\"record/missing\",\"jsonPath\":\"missing\",\"dataType\":\"double\"},"
+            + "{\"xmlPath\":\"record/amount\",\"jsonPath\":\"amount\",\"dataType\":\"bigdecimal\"},"
+            + "{\"xmlPath\":\"record/leap\",\"jsonPath\":\"leap\",\"dataType\":\"date\"},"
+            + "{\"xmlPath\":\"record/due\",\"jsonPath\":\"due\",\"dataType\":\"date\"},"
+            + "{\"xmlPath\":\"record/label\",\"jsonPath\":\"label\"}],"
+            + "\"nestedPropertyMappings\":[{\"xmlPath\":\"record/line\",\"jsonPath\":\"lines\",\"properties\":["
+            + "{\"xmlField\":\"@qty\",\"jsonField\":\"qty\",\"dataType\":\"int\"}]}]"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+
+        String xml = "<record><count>N/A</count><signed>+5</signed><total>  </total><ratio>1e3</ratio>"
+                + "<missing>-</missing><amount>12.50</amount><leap>2024-02-29</leap>"
+                + "<due>2023-02-29</due><label>x</label><line qty=\"3\"/><line qty=\"three\"/></record>";
+        JsonNode result = objectMapper.readTree(transformer.transformXmlToJson(xml, plan));
+
+        assertEquals("N/A", result.get("count").asText(), "Malformed integers should keep their text");
+        assertEquals(5, result.get("signed").asInt());
+        assertTrue(result.get("signed").isInt());
+        assertEquals(0, result.get("total").asLong(), "Blank values should take the default");
+        assertEquals(1000.0, result.get("ratio").asDouble());
+        assertEquals("-", result.get("missing").asText());
+        assertEquals("12.50", result.get("amount").asText());
+        assertEquals("2024-02-29", result.get("leap").asText());
+        assertEquals("2023-02-29", result.get("due").asText(), "Days past the end of the month are malformed");
+        assertEquals(3, result.get("lines").get(0).get("qty").asInt());
+        assertEquals("three", result.get("lines").get(1).get("qty").asText());
+
+        Map<String, Long> fallbacks = new LinkedHashMap<>();
+        for (Map<String, Object> mapping : plan.getConversionStats()) {
+            fallbacks.put((String) mapping.get("jsonPath"), ((Number) mapping.get("fallbacks")).longValue());
+        }
+        assertFalse(fallbacks.containsKey("label"), "Mappings without a data type have no counter");
+        assertEquals(1L, fallbacks.get("count"));
+        assertEquals(0L, fallbacks.get("signed"));
+        assertEquals(0L, fallbacks.get("total"), "Blank values are not conversion fallbacks");
+        assertEquals(0L, fallbacks.get("ratio"));
+        assertEquals(1L, fallbacks.get("missing"));
+        assertEquals(0L, fallbacks.get("leap"), "Leap days should convert");
+        assertEquals(1L, fallbacks.get("due"));
+        assertEquals(1L, fallbacks.get("lines.qty"));
+
+        assertEquals(transformer.transformXmlToJson(xml, plan),
+                transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testDatePatternsAndEpochFormats() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"dates\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"record/issued\",\"jsonPath\":\"issued\",\"dataType\":\"date\",\"datePattern\":\"dd/MM/yyyy\"},"
+            + "{\"xmlPath\":\"record/due\",\"jsonPath\":\"due\",\"dataType\":\"date\",\"datePattern\":\"dd/MM/yyyy\"},"
+            + "{\"xmlPath\":\"record/issued\",\"jsonPath\":\"issuedMillis\",\"dataType\":\"date\",\"datePattern\":\"dd/MM/yyyy\",\"dateFormat\":\"epochMillis\"},"
+            + "{\"xmlPath\":\"record/created\",\"jsonPath\":\"created\",\"dataType\":\"datetime\",\"dateFormat\":\"epochSeconds\"},"
+            + "{\"xmlPath\":\"record/updated\",\"jsonPath\":\"updated\",\"dataType\":\"datetime\",\"dateFormat\":\"epochMillis\"},"
+            + "{\"xmlPath\":\"record/stamp\",\"jsonPath\":\"stamp\",\"dataType\":\"datetime\",\"datePattern\":\"epochMillis\"}],"
+            + "\"nestedPropertyMappings\":[{\"xmlPath\":\"record/event\",\"jsonPath\":\"events\",\"properties\":["
+            + "{\"xmlField\":\"@at\",\"jsonField\":\"at\",\"dataType\":\"datetime\",\"datePattern\":\"dd/MM/yyyy HH:mm\",\"dateFormat\":\"epochSeconds\"}]}]"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+
+        String xml = "<record><issued>15/01/2024</issued><due>31/02/2024</due>"
+                + "<created>2024-01-15T10:30:00Z</created><updated>2024-01-15T12:30:00.250+02:00</updated>"
+                + "<stamp>1705314600500</stamp><event at=\"15/01/2024 10:30\"/><event at=\"soon\"/></record>";
+        JsonNode result = objectMapper.readTree(transformer.transformXmlToJson(xml, plan));
+
+        assertEquals("2024-01-15", result.get("issued").asText());
+        assertEquals("31/02/2024", result.get("due").asText(), "Patterns should be resolved strictly");
+        assertEquals(1705276800000L, result.get("issuedMillis").asLong());
+        assertTrue(result.get("created").isNumber());
+        assertEquals(1705314600L, result.get("created").asLong());
+        assertEquals(1705314600250L, result.get("updated").asLong(), "Offsets should be applied");
+        assertEquals("2024-01-15T10:30:00.500", result.get("stamp").asText());
+        assertEquals(1705314600L, result.get("events").get(0).get("at").asLong());
+        assertEquals("soon", result.get("events").get(1).get("at").asText());
+
+        Map<String, Long> fallbacks = new LinkedHashMap<>();
+        for (Map<String, Object> mapping : plan.getConversionStats()) {
+            fallbacks.put((String) mapping.get("jsonPath"), ((Number) mapping.get("fallbacks")).longValue());
+        }
+        assertEquals(0L, fallbacks.get("issued"));
+        assertEquals(1L, fallbacks.get("due"));
+        assertEquals(1L, fallbacks.get("events.at"));
+
+        String tree = transformer.transformXmlToJson(xml, plan);
+        assertEquals(tree, transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX, out);
+        assertEquals(tree, out.toString(StandardCharsets.UTF_8), "Streamed dates should match the tree");
+    }
+
+    @Test
+    void testSharedParentObjectsKeepFieldOrder() throws Exception {
+        // "customer" is first written by its second mapping, after "total"
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"parents\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/missing\",\"jsonPath\":\"customer.id\"},"
+            + "{\"xmlPath\":\"order/total\",\"jsonPath\":\"total\",\"dataType\":\"double\"},"
+            + "{\"xmlPath\":\"order/city\",\"jsonPath\":\"customer.address.city\"},"
+            + "{\"xmlPath\":\"order/name\",\"jsonPath\":\"customer.name\"},"
+            + "{\"xmlPath\":\"order/zip\",\"jsonPath\":\"customer.address.zip\"},"
+            + "{\"xmlPath\":\"order/status\",\"jsonPath\":\"total\"}],"
+            + "\"nestedPropertyMappings\":[{\"xmlPath\":\"order/line\",\"jsonPath\":\"summary.lines\",\"properties\":["
+            + "{\"xmlField\":\"@sku\",\"jsonField\":\"item.sku\"},"
+            + "{\"xmlField\":\"qty\",\"jsonField\":\"qty\",\"dataType\":\"int\"},"
+            + "{\"xmlField\":\"price\",\"jsonField\":\"item.price\",\"dataType\":\"double\"}]}]"
+            + "}"));
+        String xml = "<order><name>john</name><total>9.5</total><city>Oslo</city><zip>0150</zip><status>open</status>"
+                + "<line sku=\"A\"><qty>2</qty><price>1.5</price></line><line><qty>1</qty></line></order>";
+
+        String expected = "{\"total\":\"open\",\"customer\":{\"address\":{\"city\":\"Oslo\",\"zip\":\"0150\"},\"name\":\"john\"},"
+                + "\"summary\":{\"lines\":[{\"item\":{\"sku\":\"A\",\"price\":1.5},\"qty\":2},{\"qty\":1}]}}";
+        for (TransformationEngine engine : TransformationEngine.values()) {
+            assertEquals(expected, objectMapper.readTree(transformer.transformXmlToJson(xml, plan, engine)).toString(),
+                    "Fields with " + engine);
+        }
+
+        // A value replacing an object other mappings write to walks the paths
+        CompiledTransformationPlan conflicting = CompiledTransformationPlan.compile(configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"conflict\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/total\",\"jsonPath\":\"customer.total\"},"
+            + "{\"xmlPath\":\"order/name\",\"jsonPath\":\"customer\"},"
+            + "{\"xmlPath\":\"order/city\",\"jsonPath\":\"address.city\"}]"
+            + "}"));
+        assertEquals("{\"customer\":\"john\",\"address\":{\"city\":\"Oslo\"}}",
+                objectMapper.readTree(transformer.transformXmlToJson(xml, conflicting)).toString());
+    }
+
+    @Test
+    void testSharedPathPrefixesMatchLikeIndividualMappings() throws Exception {
+        List<String> paths = List.of(
+            "company/employees/employee",
+            "company/employees/employee/name",
+            "company/employees/employee[1]/name",
+            "company/employees/employee/skills/skill",
+            "company/employees/*",
+            "employee/name",
+            "employee[2]/department",
+            "name",
+            "company/offices/office"
+        );
+        String xml = loadXmlFile("test-data/company-employees.xml");
+
+        TransformationConfig combined = new TransformationConfig();
+        combined.setName("combined");
+        Map<String, String> combinedArrays = new LinkedHashMap<>();
+        List<PropertyMapping> combinedProperties = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            combinedArrays.put(paths.get(i), "array" + i);
+            combinedProperties.add(new PropertyMapping(paths.get(i), "property" + i));
+        }
+        combined.setArrayMappings(combinedArrays);
+        combined.setPropertyMappings(combinedProperties);
+
+        for (TransformationEngine engine : TransformationEngine.values()) {
+            JsonNode all = objectMapper.readTree(transformer.transformXmlToJson(xml, combined, engine));
+            for (int i = 0; i < paths.size(); i++) {
+                TransformationConfig single = new TransformationConfig();
+                single.setName("single");
+                single.setArrayMappings(Map.of(paths.get(i), "array" + i));
+                single.setPropertyMappings(List.of(new PropertyMapping(paths.get(i), "property" + i)));
+                JsonNode alone = objectMapper.readTree(transformer.transformXmlToJson(xml, single, engine));
+
+                assertEquals(alone.get("array" + i), all.get("array" + i), paths.get(i) + " with " + engine);
+                assertEquals(alone.get("property" + i), all.get("property" + i), paths.get(i) + " with " + engine);
+            }
+        }
+    }
+
+    @Test
+    void testSharedPrefixesAreNavigatedOncePerDocument() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"prefixes\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/customer/name\",\"jsonPath\":\"customer.name\"},"
+            + "{\"xmlPath\":\"order/customer/email\",\"jsonPath\":\"customer.email\"},"
+            + "{\"xmlPath\":\"order/total\",\"jsonPath\":\"total\"}]"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+        String xml = "<order><customer><name>John</name><email>john@example.com</email></customer><total>10</total></order>";
+
+        for (TransformationEngine engine : TransformationEngine.values()) {
+            XmlToJsonTransformer counting = new XmlToJsonTransformer();
+            counting.transformXmlToJson(xml, plan, engine);
+            counting.transformXmlToJson(xml, plan, engine);
+
+            Map<String, Object> stats = counting.getPathNavigationStats();
+            assertEquals(2L, stats.get("documents"), engine.name());
+            assertEquals(10L, stats.get("elementsVisited"), engine.name());
+            // order, customer, name, email and total are each matched once per document
+            assertEquals(10L, stats.get("stepMatches"), engine.name());
+            // "order" serves three paths and "customer" two: three navigations saved per document
+            assertEquals(3L, stats.get("lastDocumentPrefixHits"), engine.name());
+            assertEquals(6L, stats.get("prefixHits"), engine.name());
+        }
+    }
+
+    @Test
+    void testXPathModeMappingsAreCompiledOncePerPlan() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"xpath\",\"version\":\"2.0\",\"engine\":\"stax\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"//item[@type='gift']/name\",\"jsonPath\":\"giftName\",\"xpath\":true},"
+            + "{\"xmlPath\":\"count(/order/items/item)\",\"jsonPath\":\"itemCount\",\"dataType\":\"integer\",\"xpath\":true},"
+            + "{\"xmlPath\":\"//item[@type='gift']/name\",\"jsonPath\":\"gift.name\",\"transform\":\"upper\",\"xpath\":true},"
+            + "{\"xmlPath\":\"//item[\",\"jsonPath\":\"broken\",\"defaultValue\":\"n/a\",\"xpath\":true},"
+            + "{\"xmlPath\":\"//item[@type='none']/name\",\"jsonPath\":\"missing\",\"defaultValue\":\"none\",\"xpath\":true},"
+            + "{\"xmlPath\":\"order/id\",\"jsonPath\":\"orderId\"}],"
+            + "\"transformations\":{\"upper\":\"uppercase\"}"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+        String xml = "<order><id>7</id><items>"
+            + "<item type=\"regular\"><name>Pen</name></item>"
+            + "<item type=\"gift\"><name>Card</name></item>"
+            + "</items></order>";
+
+        assertTrue(plan.hasXPathMappings());
+        JsonNode result = objectMapper.readTree(transformer.transformXmlToJson(xml, plan));
+        assertEquals("Card", result.get("giftName").asText(), "Predicates and // should be evaluated");
+        assertEquals(2, result.get("itemCount").asInt(), "Function results should be converted to the data type");
+        assertEquals("CARD", result.get("gift").get("name").asText());
+        assertEquals("n/a", result.get("broken").asText(), "An invalid expression should yield the default value");
+        assertEquals("none", result.get("missing").asText());
+        assertEquals("7", result.get("orderId").asText(), "Plain paths should still be matched with the trie");
+
+        // XPath needs the document, so a StAX plan or request runs on the DOM engine
+        assertEquals(result, objectMapper.readTree(transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX)));
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        transformer.transformXmlToJson(xml, plan, streamed);
+        assertEquals(result, objectMapper.readTree(streamed.toByteArray()));
+
+        List<Map<String, Object>> stats = plan.getXPathStats();
+        assertEquals(4, stats.size(), "Each distinct expression should be compiled once");
+        assertEquals("//item[@type='gift']/name", stats.get(0).get("expression"));
+        assertEquals(6L, stats.get(0).get("evaluations"), "Shared expressions count both mappings");
+        assertEquals(3L, stats.get(1).get("evaluations"));
+        assertEquals(false, stats.get(2).get("valid"));
+        assertEquals(0L, stats.get(2).get("evaluations"));
+        assertFalse(CompiledTransformationPlan.compile(configurationService.loadConfiguration("simple-person-config"))
+            .hasXPathMappings());
+    }
+
+    @Test
+    void testXPathMappingsEvaluateConcurrently() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"xpath-threads\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"//item[@type='gift']/name\",\"jsonPath\":\"giftName\",\"xpath\":true},"
+            + "{\"xmlPath\":\"count(/order/items/item)\",\"jsonPath\":\"itemCount\",\"dataType\":\"integer\",\"xpath\":true}]"
+            + "}");
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(config);
+        int threads = 8;
+        int rounds = 50;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    for (int round = 0; round < rounds; round++) {
+                        String name = "Card" + thread + "-" + round;
+                        String xml = "<order><items><item type=\"gift\"><name>" + name + "</name></item>"
+                            + "<item/>".repeat(round % 5) + "</items></order>";
+                        JsonNode result = objectMapper.readTree(transformer.transformXmlToJson(xml, plan));
+                        if (!name.equals(result.get("giftName").asText())
+                                || result.get("itemCount").asInt() != 1 + round % 5) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(60, TimeUnit.SECONDS), "Each thread should see its own document");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Map<String, Object> stats : plan.getXPathStats()) {
+            assertEquals((long) threads * rounds, stats.get("evaluations"));
+            assertEquals(0L, stats.get("failures"));
+        }
+    }
+
+    @Test
+    void testInvalidEngineFailsAtCompileTime() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson(
+            "{\"name\":\"bad-engine\",\"engine\":\"sax\",\"propertyMappings\":[]}");
+
+        assertThrows(IllegalArgumentException.class, () -> CompiledTransformationPlan.compile(config));
+        assertThrows(IllegalArgumentException.class, () -> CompiledTransformationPlan.compile(null));
+    }
+}
@@ -0,0 +1,188 @@
+package com.bitsevn.transformer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import com.bitsevn.transformer.service.CompiledTransformationPlan;
+import com.bitsevn.transformer.service.ConfigurationService;
+import com.bitsevn.transformer.service.TransformationEngine;
+import com.bitsevn.transformer.service.XmlToJsonTransformer;
+
+@SpringBootTest
+public class DocumentBuilderPoolTest {
+
+    @Autowired
+    private ConfigurationService configurationService;
+
+    private static final List<String> CORPUS = List.of(
+        "simple-person",
+        "company-employees",
+        "complex-order",
+        "library-books"
+    );
+
+    private String loadXmlFile(String path) throws Exception {
+        ClassPathResource resource = new ClassPathResource(path);
+        return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    private static long stat(Map<String, Object> stats, String name) {
+        return ((Number) stats.get(name)).longValue();
+    }
+
+    @Test
+    void testParallelTransformationsShareBoundedPool() throws Exception {
+        int poolSize = 3;
+        int threads = 16;
+        int rounds = 25;
+        XmlToJsonTransformer transformer = new XmlToJsonTransformer(poolSize);
+
+        List<String> xml = new ArrayList<>();
+        List<CompiledTransformationPlan> plans = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (String name : CORPUS) {
+            xml.add(loadXmlFile("test-data/" + name + ".xml"));
+            plans.add(configurationService.loadPlan(name + "-config"));
+            expected.add(new XmlToJsonTransformer().transformXmlToJson(xml.get(xml.size() - 1),
+                    plans.get(plans.size() - 1), TransformationEngine.DOM));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                Callable<Integer> task = () -> {
+                    start.await();
+                    int checked = 0;
+                    for (int round = 0; round < rounds; round++) {
+                        int doc = (offset + round) % CORPUS.size();
+                        String result = transformer.transformXmlToJson(xml.get(doc), plans.get(doc), TransformationEngine.DOM);
+                        assertEquals(expected.get(doc), result, CORPUS.get(doc) + " transformed concurrently");
+                        checked++;
+                    }
+                    return checked;
+                };
+                results.add(executor.submit(task));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(rounds, result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Object> stats = transformer.getDocumentBuilderPoolStats();
+        assertEquals(poolSize, stat(stats, "maxIdle"));
+        assertEquals(0, stat(stats, "inUse"), "All builders should be released");
+        assertTrue(stat(stats, "hits") > 0, "Released builders should be reused");
+        assertTrue(stat(stats, "idle") <= poolSize, "No more builders than the pool size should be kept");
+        assertEquals(threads * rounds, stat(stats, "hits") + stat(stats, "misses"), "Every parse should acquire one builder");
+        assertEquals(stat(stats, "misses"), stat(stats, "idle") + stat(stats, "dropped"),
+                "Every created builder should be back in the pool or dropped");
+    }
+
+    @Test
+    void testStalledStreamDoesNotHoldUpOtherParses() throws Exception {
+        XmlToJsonTransformer transformer = new XmlToJsonTransformer(1);
+        CompiledTransformationPlan plan = configurationService.loadPlan("simple-person-config");
+        String xml = loadXmlFile("test-data/simple-person.xml");
+
+        // A client upload that sends nothing until released
+        CountDownLatch upload = new CountDownLatch(1);
+        InputStream stalled = new InputStream() {
+            private final InputStream content = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+
+            @Override
+            public int read() throws IOException {
+                try {
+                    upload.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return content.read();
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = executor.submit(() -> {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                transformer.transformXmlToJson(stalled, plan, TransformationEngine.DOM, output);
+                return output.toString(StandardCharsets.UTF_8);
+            });
+            while (stat(transformer.getDocumentBuilderPoolStats(), "inUse") == 0) {
+                Thread.sleep(1);
+            }
+
+            ExecutorService other = Executors.newFixedThreadPool(2);
+            try {
+                Future<String> parsed = other.submit(
+                        () -> transformer.transformXmlToJson(xml, plan, TransformationEngine.DOM));
+                Future<String> generic = other.submit(() -> transformer.transformXmlToGenericJson(xml));
+                assertTrue(parsed.get(10, TimeUnit.SECONDS).contains("John Doe"),
+                        "Parsing should not wait for the stalled upload");
+                assertTrue(generic.get(10, TimeUnit.SECONDS).contains("John Doe"));
+            } finally {
+                other.shutdownNow();
+            }
+            assertFalse(slow.isDone(), "The stalled upload should still be parsing");
+
+            upload.countDown();
+            assertTrue(slow.get(10, TimeUnit.SECONDS).contains("John Doe"));
+        } finally {
+            upload.countDown();
+            executor.shutdownNow();
+        }
+
+        Map<String, Object> stats = transformer.getDocumentBuilderPoolStats();
+        assertEquals(0, stat(stats, "inUse"));
+        assertEquals(1, stat(stats, "idle"), "Only one idle builder should be kept");
+        assertEquals(stat(stats, "misses"), stat(stats, "idle") + stat(stats, "dropped"));
+    }
+
+    @Test
+    void testBuilderIsReturnedWhenParsingFails() throws Exception {
+        XmlToJsonTransformer transformer = new XmlToJsonTransformer(1);
+        CompiledTransformationPlan plan = configurationService.loadPlan("simple-person-config");
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(Exception.class,
+                    () -> transformer.transformXmlToJson("<person><name>", plan, TransformationEngine.DOM));
+        }
+        String result = transformer.transformXmlToJson(loadXmlFile("test-data/simple-person.xml"), plan,
+                TransformationEngine.DOM);
+        assertTrue(result.contains("John Doe"), "Pool should still hand out a usable builder");
+
+        Map<String, Object> stats = transformer.getDocumentBuilderPoolStats();
+        assertEquals(0, stat(stats, "inUse"));
+        assertEquals(1, stat(stats, "misses"), "The single builder should be reused after failures");
+        assertEquals(3, stat(stats, "hits"));
+    }
+}
@@ -1,5 +1,6 @@
 package com.bitsevn.transformer;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -139,6 +140,104 @@ public class ReadableArrayMappingTest {
         assertTrue(result.contains("\"officeId\" : \"OFF001\""));
     }
 
+    @Test
+    void testFieldsOnlyMatchDirectChildren() throws Exception {
+        // The manager's <name> and <id> are grandchildren of the employee and must not be picked up
+        config.setNestedPropertyMappings(Arrays.asList(
+            createEmployeeMapping()
+        ));
+        config.setArrayMappings(java.util.Map.of(
+            "company/employees/employee|id:employeeId,name:fullName", "simpleEmployees"
+        ));
+        
+        String xmlInput = "<company><name>TechCorp</name><employees><employee>"
+                + "<manager><id>EMP000</id><name>Jane Boss</name><department><deptId>EXEC</deptId></department></manager>"
+                + "<position>Developer</position><department><deptName>Development</deptName></department>"
+                + "</employee></employees></company>";
+        
+        String result = transformer.transformXmlToJson(xmlInput, config);
+        
+        assertNotNull(result);
+        assertTrue(result.contains("\"jobTitle\" : \"Developer\""));
+        assertTrue(result.contains("\"departmentName\" : \"Development\""));
+        assertFalse(result.contains("EMP000"), "Grandchild id should not be mapped: " + result);
+        assertFalse(result.contains("Jane Boss"), "Grandchild name should not be mapped: " + result);
+        assertFalse(result.contains("EXEC"), "Nested field path should start at a direct child: " + result);
+    }
+
+    @Test
+    void testFiltersDropItemsBeforeTheyAreMapped() throws Exception {
+        com.bitsevn.transformer.model.NestedPropertyMapping activeItems = new com.bitsevn.transformer.model.NestedPropertyMapping(
+            "order/items/item", "activeItems", Arrays.asList(
+                new com.bitsevn.transformer.model.PropertyFieldMapping("@sku", "sku"),
+                new com.bitsevn.transformer.model.PropertyFieldMapping("quantity", "quantity", "integer")));
+        activeItems.setFilters(Arrays.asList(
+            new com.bitsevn.transformer.model.FilterCondition("@status", "eq", "ACTIVE"),
+            new com.bitsevn.transformer.model.FilterCondition("quantity", ">", "0")));
+        config.setNestedPropertyMappings(Arrays.asList(activeItems));
+        config.setArrayMappings(new java.util.LinkedHashMap<>(java.util.Map.of(
+            "order/items/item|@sku:sku|price>=10,@status!=CANCELLED,gift", "giftItems")));
+        
+        String xmlInput = "<order><items>"
+                + "<item sku=\"A\" status=\"ACTIVE\"><quantity>2</quantity><price>9.5</price></item>"
+                + "<item sku=\"B\" status=\"CANCELLED\"><quantity>1</quantity><price>20</price><gift/></item>"
+                + "<item sku=\"C\" status=\"ACTIVE\"><quantity>0</quantity><price>12</price><gift/></item>"
+                + "<item sku=\"D\" status=\"ACTIVE\"><quantity>10</quantity><price>100</price></item>"
+                + "<item sku=\"E\"><quantity>3</quantity></item>"
+                + "</items></order>";
+        
+        for (com.bitsevn.transformer.service.TransformationEngine engine : com.bitsevn.transformer.service.TransformationEngine.values()) {
+            com.fasterxml.jackson.databind.JsonNode result = new com.fasterxml.jackson.databind.ObjectMapper()
+                .readTree(transformer.transformXmlToJson(xmlInput, config, engine));
+            
+            com.fasterxml.jackson.databind.JsonNode active = result.get("activeItems");
+            assertNotNull(active, engine.name());
+            assertTrue(active.size() == 2, "Only active items with a quantity should be mapped: " + active);
+            assertTrue("A".equals(active.get(0).get("sku").asText()) && "D".equals(active.get(1).get("sku").asText()));
+            assertTrue(active.get(1).get("quantity").asInt() == 10, "Numbers should compare numerically");
+            
+            com.fasterxml.jackson.databind.JsonNode gifts = result.get("giftItems");
+            assertNotNull(gifts, engine.name());
+            assertTrue(gifts.size() == 1 && "C".equals(gifts.get(0).get("sku").asText()),
+                "Inline filters should all hold: " + gifts);
+        }
+        
+        // No item passes: the mapping is left out like one that selects nothing
+        activeItems.setFilters(Arrays.asList(new com.bitsevn.transformer.model.FilterCondition("@status", "eq", "ARCHIVED")));
+        assertFalse(transformer.transformXmlToJson(xmlInput,
+            com.bitsevn.transformer.service.CompiledTransformationPlan.compile(config)).contains("activeItems"));
+    }
+
+    @Test
+    void testNumericFiltersDropValuesThatAreNotNumbers() throws Exception {
+        com.bitsevn.transformer.model.NestedPropertyMapping counted = new com.bitsevn.transformer.model.NestedPropertyMapping(
+            "order/items/item", "counted", Arrays.asList(
+                new com.bitsevn.transformer.model.PropertyFieldMapping("@sku", "sku")));
+        counted.setFilters(Arrays.asList(new com.bitsevn.transformer.model.FilterCondition("quantity", ">", "0")));
+        config.setNestedPropertyMappings(Arrays.asList(counted));
+        config.setArrayMappings(new java.util.LinkedHashMap<>(java.util.Map.of(
+            "order/items/item|@sku:sku|quantity!=0", "nonZero")));
+
+        String xmlInput = "<order><items>"
+                + "<item sku=\"A\"><quantity>2</quantity></item>"
+                + "<item sku=\"B\"><quantity>abc</quantity></item>"
+                + "<item sku=\"C\"><quantity>0</quantity></item>"
+                + "</items></order>";
+
+        for (com.bitsevn.transformer.service.TransformationEngine engine : com.bitsevn.transformer.service.TransformationEngine.values()) {
+            com.fasterxml.jackson.databind.JsonNode result = new com.fasterxml.jackson.databind.ObjectMapper()
+                .readTree(transformer.transformXmlToJson(xmlInput, config, engine));
+
+            com.fasterxml.jackson.databind.JsonNode countedItems = result.get("counted");
+            assertTrue(countedItems.size() == 1 && "A".equals(countedItems.get(0).get("sku").asText()),
+                "Text that is not a number should not compare above 0: " + countedItems);
+
+            com.fasterxml.jackson.databind.JsonNode nonZero = result.get("nonZero");
+            assertTrue(nonZero.size() == 2 && "B".equals(nonZero.get(1).get("sku").asText()),
+                "Text that is not a number differs from 0: " + nonZero);
+        }
+    }
+
     // Helper methods to create mapping configurations
     private com.bitsevn.transformer.model.NestedPropertyMapping createEmployeeMapping() {
         com.bitsevn.transformer.model.NestedPropertyMapping mapping = new com.bitsevn.transformer.model.NestedPropertyMapping();
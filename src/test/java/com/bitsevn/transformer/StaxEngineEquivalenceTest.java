@@ -0,0 +1,317 @@
+package com.bitsevn.transformer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import com.bitsevn.transformer.model.PropertyMapping;
+import com.bitsevn.transformer.model.TransformationConfig;
+import com.bitsevn.transformer.service.ConfigurationService;
+import com.bitsevn.transformer.service.TransformationEngine;
+import com.bitsevn.transformer.service.XmlToJsonTransformer;
+
+@SpringBootTest
+public class StaxEngineEquivalenceTest {
+
+    @Autowired
+    private XmlToJsonTransformer transformer;
+
+    @Autowired
+    private ConfigurationService configurationService;
+
+    private static final List<String> CORPUS = List.of(
+        "simple-person",
+        "simple-order",
+        "company-employees",
+        "company-offices",
+        "company-projects",
+        "complex-order",
+        "library-books"
+    );
+
+    private String loadXmlFile(String path) throws Exception {
+        ClassPathResource resource = new ClassPathResource(path);
+        return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    private void assertSameOutput(String xml, TransformationConfig config) throws Exception {
+        String domResult = transformer.transformXmlToJson(xml, config, TransformationEngine.DOM);
+        String staxResult = transformer.transformXmlToJson(xml, config, TransformationEngine.STAX);
+        assertEquals(domResult, staxResult, "StAX engine output should be identical to DOM engine output");
+    }
+
+    @Test
+    void testTestDataCorpusProducesIdenticalJson() throws Exception {
+        for (String name : CORPUS) {
+            TransformationConfig config = configurationService.loadConfiguration(name + "-config");
+            assertSameOutput(loadXmlFile("test-data/" + name + ".xml"), config);
+        }
+    }
+
+    @Test
+    void testEngineSelectedByConfiguration() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson(
+            "{\"name\":\"stax\",\"engine\":\"stax\",\"propertyMappings\":[{\"xmlPath\":\"person/name\",\"jsonPath\":\"fullName\"}]}");
+
+        String result = transformer.transformXmlToJson("<person><name>John Doe</name></person>", config);
+
+        assertTrue(result.contains("\"fullName\" : \"John Doe\""), "Should transform with the configured engine");
+        assertThrows(IllegalArgumentException.class, () -> TransformationEngine.fromName("sax"));
+    }
+
+    @Test
+    void testEdgeCaseDocumentsProduceIdenticalJson() throws Exception {
+        TransformationConfig config = configurationService.loadConfiguration("simple-person-config");
+        List<String> documents = List.of(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><person></person>",
+            "<person><name>John &amp; Jane Doe</name><email>John.Doe@Example.com</email></person>",
+            "<person><name><![CDATA[John & Jane Doe]]></name><age>30</age></person>",
+            "<person><name>John Doe</name>Some text content<age>30</age></person>",
+            "<ns:person xmlns:ns=\"http://example.com\"><ns:name>John Doe</ns:name><ns:age>30</ns:age></ns:person>",
+            "<person><name value=\"Attribute Name\">Text Name</name><age><!-- comment -->42</age></person>"
+        );
+        for (String xml : documents) {
+            assertSameOutput(xml, config);
+        }
+    }
+
+    @Test
+    void testArraySemanticsMatchDomEngine() throws Exception {
+        TransformationConfig config = new TransformationConfig();
+        config.setName("Array Semantics");
+        config.setPropertyMappings(Arrays.asList(
+            new PropertyMapping("item", "firstItem"),
+            new PropertyMapping("catalog/section[1]/item", "secondSectionItem"),
+            new PropertyMapping("catalog/@name", "catalogName")
+        ));
+        Map<String, String> arrayMappings = new LinkedHashMap<>();
+        arrayMappings.put("item", "allItems");
+        arrayMappings.put("catalog/section/item", "firstSectionItems");
+        arrayMappings.put("catalog/section/item|name:itemName,price:itemPrice", "mappedItems");
+        arrayMappings.put("catalog/section/item[1]", "secondItem");
+        arrayMappings.put("catalog/*", "sections");
+        config.setArrayMappings(arrayMappings);
+
+        String xml = "<catalog name=\"Main\">"
+                + "<section><item><name>A</name><price>1</price><item><name>Nested</name></item></item>"
+                + "<item><name>B</name><tag>x</tag><tag>y</tag></item></section>"
+                + "<section><item><name>C</name><price>3</price></item></section>"
+                + "</catalog>";
+
+        assertSameOutput(xml, config);
+    }
+
+    @Test
+    void testAttributeAndTextStepsResolveOnTheSelectedElement() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+                + "\"name\":\"Attribute Steps\","
+                + "\"propertyMappings\":["
+                + "{\"xmlPath\":\"order/@orderId\",\"jsonPath\":\"orderNumber\"},"
+                + "{\"xmlPath\":\"order/item[1]/@sku\",\"jsonPath\":\"secondSku\"},"
+                + "{\"xmlPath\":\"order/note/text()\",\"jsonPath\":\"note\"},"
+                + "{\"xmlPath\":\"order/@missing\",\"jsonPath\":\"missing\",\"defaultValue\":\"none\"},"
+                + "{\"xmlPath\":\"order/@x:channel\",\"jsonPath\":\"channel\"}],"
+                + "\"arrayMappings\":{\"order/item/@sku\":\"skus\",\"order/item/text()\":\"itemTexts\"},"
+                + "\"nestedPropertyMappings\":[{\"xmlPath\":\"order/item\",\"jsonPath\":\"items\",\"properties\":["
+                + "{\"xmlField\":\"@sku\",\"jsonField\":\"sku\"},"
+                + "{\"xmlField\":\"@qty\",\"jsonField\":\"quantity\",\"dataType\":\"integer\"},"
+                + "{\"xmlField\":\"price/@currency\",\"jsonField\":\"currency\"}]}]}");
+
+        String xml = "<order orderId=\"ORD-7\" xmlns:x=\"urn:x\" x:channel=\"web\">"
+                + "<note>Leave at <b>door</b> please</note>"
+                + "<item sku=\"A-1\" qty=\"2\">first<price currency=\"EUR\">10</price></item>"
+                + "<item sku=\"B-2\"><price>5</price></item>"
+                + "<item qty=\"1\"><![CDATA[third]]></item>"
+                + "</order>";
+
+        String result = transformer.transformXmlToJson(xml, config, TransformationEngine.DOM);
+        assertTrue(result.contains("\"orderNumber\" : \"ORD-7\""), "Should read the attribute of the selected element");
+        assertTrue(result.contains("\"secondSku\" : \"B-2\""), "Should read the attribute of the indexed element");
+        assertTrue(result.contains("\"note\" : \"Leave at  please\""), "text() should only join the element's own text");
+        assertTrue(result.contains("\"missing\" : \"none\""), "A missing attribute should fall back to the default");
+        assertTrue(result.contains("\"channel\" : \"web\""), "Should read prefixed attributes by qualified name");
+        assertTrue(result.contains("\"skus\" : [ \"A-1\", \"B-2\" ]"), "Elements without the attribute are not selected");
+        assertTrue(result.contains("\"itemTexts\" : [ \"first\", \"third\" ]"), "Elements without own text are not selected");
+        assertTrue(result.contains("\"currency\" : \"EUR\""), "Item fields should read attributes of child elements");
+        assertTrue(result.contains("\"quantity\" : 2"), "Item attribute fields should honor the data type");
+        assertSameOutput(xml, config);
+    }
+
+    @Test
+    void testDescendantAndWildcardStepsMatchInBothEngines() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+                + "\"name\":\"Descendant Steps\","
+                + "\"propertyMappings\":["
+                + "{\"xmlPath\":\"//lineItem/sku\",\"jsonPath\":\"firstSku\"},"
+                + "{\"xmlPath\":\"order//lineItem[2]/sku\",\"jsonPath\":\"thirdSku\"},"
+                + "{\"xmlPath\":\"order/*/price\",\"jsonPath\":\"firstPrice\"},"
+                + "{\"xmlPath\":\"order//@currency\",\"jsonPath\":\"unsupported\"}],"
+                + "\"arrayMappings\":{"
+                + "\"order//lineItem\":\"lineItems\","
+                + "\"order//lineItem|sku:code,qty:quantity\":\"mappedLineItems\","
+                + "\"order/shipments//sku\":\"shippedSkus\","
+                + "\"order//*/price\":\"prices\"},"
+                + "\"nestedPropertyMappings\":[{\"xmlPath\":\"order/shipments/*\",\"jsonPath\":\"shipments\",\"properties\":["
+                + "{\"xmlField\":\"@id\",\"jsonField\":\"id\"},"
+                + "{\"xmlField\":\"//sku\",\"jsonField\":\"firstSku\"}]}]}");
+
+        String xml = "<order>"
+                + "<summary><price>30</price></summary>"
+                + "<lineItem><sku>A</sku><qty>1</qty></lineItem>"
+                + "<shipments>"
+                + "<shipment id=\"S1\"><box><lineItem><sku>B</sku><qty>2</qty></lineItem></box></shipment>"
+                + "<parcel id=\"P1\"><lineItem><sku>C</sku><price>5</price></lineItem></parcel>"
+                + "</shipments>"
+                + "</order>";
+
+        String result = transformer.transformXmlToJson(xml, config, TransformationEngine.DOM);
+        assertTrue(result.contains("\"firstSku\" : \"A\""), "A leading // should match anywhere");
+        assertTrue(result.contains("\"thirdSku\" : \"C\""), "An indexed // step counts matches in document order");
+        assertTrue(result.contains("\"firstPrice\" : \"30\""), "* should match a child of any name");
+        assertTrue(result.contains("\"shippedSkus\" : [ \"B\", \"C\" ]"), "// should only match inside the bound element");
+        // Like any intermediate step, "//*" binds its first match only
+        assertTrue(result.contains("\"prices\" : [ \"30\" ]"));
+        assertTrue(result.contains("\"code\" : \"B\""), "Complex arrays should accept // paths");
+        assertTrue(result.contains("\"id\" : \"P1\""));
+        assertTrue(!result.contains("unsupported"), "Attribute steps after // never match");
+        assertSameOutput(xml, config);
+    }
+
+    @Test
+    void testSubtreesNoPathReachesAreSkipped() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+                + "\"name\":\"Projection\","
+                + "\"propertyMappings\":["
+                + "{\"xmlPath\":\"order/id\",\"jsonPath\":\"id\"},"
+                + "{\"xmlPath\":\"//note\",\"jsonPath\":\"note\"},"
+                // Never matches, so the pass reads to the end and measures the audit
+                + "{\"xmlPath\":\"//missing\",\"jsonPath\":\"missing\"}],"
+                + "\"arrayMappings\":{\"order/items/item\":\"items\"}}");
+
+        StringBuilder attachments = new StringBuilder("<attachments>");
+        for (int i = 0; i < 100; i++) {
+            attachments.append("<attachment><id>").append(i).append("</id><name>file").append(i).append("</name><data>")
+                    .append("QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVo=").append("</data></attachment>");
+        }
+        attachments.append("</attachments>");
+        String xml = "<order><id>42</id>" + attachments
+                + "<items><item>A</item><item>B</item></items>"
+                + "<audit><entry><note>checked</note></entry></audit></order>";
+
+        long skippedBefore = ((Number) transformer.getProjectionStats().get("skippedElements")).longValue();
+        String result = transformer.transformXmlToJson(xml, config, TransformationEngine.STAX);
+        Map<String, Object> stats = transformer.getProjectionStats();
+
+        assertTrue(result.contains("\"items\" : [ \"A\", \"B\" ]"));
+        assertTrue(result.contains("\"note\" : \"checked\""), "A path matching at any depth should still match inside skipped ancestors");
+        // attachments, 100 attachment elements with 3 children each, audit and entry
+        assertEquals(403L, ((Number) stats.get("skippedElements")).longValue() - skippedBefore);
+        assertTrue(result.contains("\"id\" : \"42\""), "Children of skipped elements should not be taken for children of their ancestors");
+        // Measured over the content of skipped elements, leaving out the note matched inside them
+        long auditCharacters = "<entry></entry></audit>".length();
+        assertEquals(attachments.length() - "<attachments>".length() + auditCharacters,
+                stats.get("lastDocumentSkippedCharacters"));
+        assertSameOutput(xml, config);
+    }
+
+    @Test
+    void testMatchesInsideSkippedElementsAreNotCountedAsSkipped() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+                + "\"name\":\"Skipped\","
+                + "\"arrayMappings\":{\"b\":\"bs\"}}");
+        String xml = "<r><x>" + "A".repeat(60) + "<b>v</b>" + "B".repeat(60) + "<!-- c --></x></r>";
+
+        long skippedBefore = ((Number) transformer.getProjectionStats().get("skippedElements")).longValue();
+        String result = transformer.transformXmlToJson(xml, config, TransformationEngine.STAX);
+        Map<String, Object> stats = transformer.getProjectionStats();
+
+        assertTrue(result.contains("\"bs\" : [ \"v\" ]"));
+        assertEquals(2L, ((Number) stats.get("skippedElements")).longValue() - skippedBefore);
+        long skipped = ("<x>" + "A".repeat(60)).length() + ("B".repeat(60) + "<!-- c --></x></r>").length();
+        assertEquals(skipped, stats.get("lastDocumentSkippedCharacters"), "The matched b element should not be counted");
+        assertSameOutput(xml, config);
+    }
+
+    @Test
+    void testReadingStopsOnceEveryPropertyHasItsValue() throws Exception {
+        TransformationConfig config = configurationService.loadConfiguration("simple-person-config");
+        String header = "<person><name>John Doe</name><age>30</age><email>John@Example.com</email>"
+                + "<active>true</active><salary>75000</salary><birthDate>1990-01-15</birthDate>";
+        StringBuilder history = new StringBuilder("<history>");
+        for (int i = 0; i < 1000; i++) {
+            history.append("<event><name>event").append(i).append("</name></event>");
+        }
+        history.append("</history>");
+
+        long stoppedBefore = ((Number) transformer.getProjectionStats().get("stoppedEarly")).longValue();
+        assertSameOutput(header + history + "</person>", config);
+        assertEquals(stoppedBefore + 1, ((Number) transformer.getProjectionStats().get("stoppedEarly")).longValue());
+
+        // The unread rest of the document is not checked
+        String truncated = transformer.transformXmlToJson(header + "<history><event>", config, TransformationEngine.STAX);
+        assertTrue(truncated.contains("\"dateOfBirth\" : \"1990-01-15\""));
+
+        // A property without a match keeps the pass reading to the end
+        assertThrows(Exception.class, () -> transformer.transformXmlToJson(
+                "<person><name>John Doe</name><history><event>", config, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testReadingStopsOnceArraysCanNoLongerMatch() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+                + "\"name\":\"Bound arrays\","
+                + "\"propertyMappings\":["
+                + "{\"xmlPath\":\"order/header/id\",\"jsonPath\":\"id\"},"
+                + "{\"xmlPath\":\"order/header/missing\",\"jsonPath\":\"missing\",\"defaultValue\":\"none\"}],"
+                + "\"arrayMappings\":{\"order/items/item\":\"skus\",\"order/items/item|@sku:sku|qty>1\":\"bulk\"},"
+                + "\"nestedPropertyMappings\":[{\"xmlPath\":\"order/items/item\",\"jsonPath\":\"lines\",\"properties\":["
+                + "{\"xmlField\":\"@sku\",\"jsonField\":\"sku\"},"
+                + "{\"xmlField\":\"qty\",\"jsonField\":\"qty\",\"dataType\":\"int\"}]}]}");
+        String head = "<order><header><id>42</id></header><items>"
+                + "<item sku=\"A\"><qty>2</qty></item><item sku=\"B\"><qty>1</qty></item></items>";
+        StringBuilder tail = new StringBuilder("<history>");
+        for (int i = 0; i < 1000; i++) {
+            tail.append("<event><item sku=\"X").append(i).append("\"><qty>9</qty></item></event>");
+        }
+        tail.append("</history>");
+
+        long stoppedBefore = ((Number) transformer.getProjectionStats().get("stoppedEarly")).longValue();
+        assertSameOutput(head + tail + "<items><item sku=\"late\"/></items></order>", config);
+        assertEquals(stoppedBefore + 1, ((Number) transformer.getProjectionStats().get("stoppedEarly")).longValue());
+
+        // Once the bound items element has ended, the unread rest of the document is not checked
+        String truncated = transformer.transformXmlToJson(head + "<history><event>", config, TransformationEngine.STAX);
+        assertEquals(transformer.transformXmlToJson(head + "</order>", config, TransformationEngine.DOM), truncated);
+        assertTrue(truncated.contains("\"bulk\" : [ {") && truncated.contains("\"missing\" : \"none\""), truncated);
+
+        // A path whose first step is its last can match anywhere, so the pass reads to the end
+        TransformationConfig anywhere = configurationService.loadConfigurationFromJson("{"
+                + "\"name\":\"Unbound array\",\"arrayMappings\":{\"item\":\"items\"}}");
+        assertThrows(Exception.class, () -> transformer.transformXmlToJson(
+                head + "<history><event>", anywhere, TransformationEngine.STAX));
+    }
+
+    @Test
+    void testMalformedXmlFailsWithStaxEngine() throws Exception {
+        TransformationConfig config = configurationService.loadConfiguration("simple-person-config");
+
+        assertThrows(Exception.class, () -> {
+            transformer.transformXmlToJson("<person><name>John Doe<age>30</age>", config, TransformationEngine.STAX);
+        }, "Should throw exception for malformed XML");
+        assertThrows(Exception.class, () -> {
+            transformer.transformXmlToJson("", config, TransformationEngine.STAX);
+        }, "Should throw exception for empty XML input");
+    }
+}
@@ -0,0 +1,110 @@
+package com.bitsevn.transformer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.util.StreamUtils;
+
+import com.bitsevn.transformer.service.ConfigurationService;
+import com.bitsevn.transformer.service.TransformationEngine;
+import com.bitsevn.transformer.service.XmlToJsonTransformer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class StreamingEndpointTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private XmlToJsonTransformer transformer;
+
+    @Autowired
+    private ConfigurationService configurationService;
+
+    private String loadXmlFile(String path) throws Exception {
+        ClassPathResource resource = new ClassPathResource(path);
+        return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    private String stream(String uri, byte[] body) throws Exception {
+        MvcResult result = mockMvc.perform(post(uri).contentType(MediaType.APPLICATION_XML).content(body))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testStreamingEndpointWritesTransformationResult() throws Exception {
+        String xml = loadXmlFile("test-data/company-employees.xml");
+        String expected = transformer.transformXmlToJson(xml, configurationService.loadPlan("company-employees-config"));
+
+        for (TransformationEngine engine : TransformationEngine.values()) {
+            String uri = "/api/transform/company-employees-config/stream?engine=" + engine.name().toLowerCase();
+            assertEquals(expected, stream(uri, xml.getBytes(StandardCharsets.UTF_8)), "Streamed result with " + engine);
+        }
+        assertEquals(expected, stream("/api/transform/company-employees-config/stream",
+                xml.getBytes(StandardCharsets.UTF_8)), "Streamed result with the default engine");
+    }
+
+    @Test
+    void testStreamingEndpointDecodesDeclaredEncoding() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+                + "<person><name>José</name><age>30</age><email>jose@example.com</email></person>";
+        String expected = transformer.transformXmlToJson(xml, configurationService.loadPlan("simple-person-config"));
+
+        assertEquals(expected, stream("/api/transform/simple-person-config/stream",
+                xml.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void testGenericEndpointConvertsWholeDocument() throws Exception {
+        String xml = "<library><name>City</name>"
+                + "<book id=\"1\"><title>A</title><tag>x</tag><tag>y</tag></book>"
+                + "<shelf value=\"3\"/>"
+                + "<book><title>B</title></book></library>";
+
+        String response = stream("/api/generic/transform", xml.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(transformer.transformXmlToGenericJson(xml), response);
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode json = objectMapper.readTree(response);
+        assertEquals("City", json.at("/library/name").asText());
+        // Repeated names become arrays, even when not adjacent, at the position of the first
+        assertEquals("[\"name\",\"book\",\"shelf\"]", objectMapper.writeValueAsString(json.get("library").fieldNames()));
+        assertEquals("B", json.at("/library/book/1/title").asText());
+        assertEquals("y", json.at("/library/book/0/tag/1").asText());
+        assertEquals("3", json.at("/library/shelf").asText());
+    }
+
+    @Test
+    void testStreamingEndpointReportsUnknownConfiguration() throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/transform/missing-config/stream")
+                        .contentType(MediaType.APPLICATION_XML).content("<person/>"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Transformation failed: Configuration file not found: configs/missing-config.json"));
+    }
+}
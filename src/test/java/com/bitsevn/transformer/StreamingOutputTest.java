@@ -0,0 +1,173 @@
+package com.bitsevn.transformer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import com.bitsevn.transformer.service.CompiledTransformationPlan;
+import com.bitsevn.transformer.service.ConfigurationService;
+import com.bitsevn.transformer.service.TransformationEngine;
+import com.bitsevn.transformer.service.XmlToJsonTransformer;
+
+@SpringBootTest
+public class StreamingOutputTest {
+
+    @Autowired
+    private XmlToJsonTransformer transformer;
+
+    @Autowired
+    private ConfigurationService configurationService;
+
+    private static final List<String> CORPUS = List.of(
+        "simple-person",
+        "simple-order",
+        "company-employees",
+        "company-offices",
+        "company-projects",
+        "complex-order",
+        "library-books"
+    );
+
+    private String loadXmlFile(String path) throws Exception {
+        ClassPathResource resource = new ClassPathResource(path);
+        return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    private void assertStreamedSameAsString(String xml, CompiledTransformationPlan plan, String description) throws Exception {
+        for (TransformationEngine engine : TransformationEngine.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transformer.transformXmlToJson(xml, plan, engine, out);
+            assertEquals(transformer.transformXmlToJson(xml, plan, engine), out.toString(StandardCharsets.UTF_8),
+                description + " with " + engine);
+        }
+    }
+
+    @Test
+    void testTestDataCorpusStreamsIdenticalJson() throws Exception {
+        for (String name : CORPUS) {
+            CompiledTransformationPlan plan = configurationService.loadPlan(name + "-config");
+            assertStreamedSameAsString(loadXmlFile("test-data/" + name + ".xml"), plan, name);
+        }
+    }
+
+    @Test
+    void testFieldOrderFollowsFirstWrittenValue() throws Exception {
+        // The first mapping of "customer" selects nothing, so "customer" is written after "total"
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"order\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/missing\",\"jsonPath\":\"customer.id\"},"
+            + "{\"xmlPath\":\"order/total\",\"jsonPath\":\"total\",\"dataType\":\"double\"},"
+            + "{\"xmlPath\":\"order/customer\",\"jsonPath\":\"customer.name\"},"
+            + "{\"xmlPath\":\"order/status\",\"jsonPath\":\"total\"}],"
+            + "\"arrayMappings\":{\"order/line\":\"lines\",\"order/line|sku:sku\":\"items.all\"}"
+            + "}"));
+        String xml = "<order><customer>john</customer><total>9.5</total><status>open</status>"
+                + "<line><sku>A</sku></line><line><sku>B</sku><qty>2</qty></line></order>";
+
+        assertStreamedSameAsString(xml, plan, "reordered fields");
+    }
+
+    @Test
+    void testConflictingJsonPathsFallBackToTree() throws Exception {
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"conflict\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/total\",\"jsonPath\":\"customer.total\"},"
+            + "{\"xmlPath\":\"order/customer\",\"jsonPath\":\"customer\"}]"
+            + "}"));
+        String xml = "<order><customer>john</customer><total>9.5</total></order>";
+
+        assertStreamedSameAsString(xml, plan, "conflicting paths");
+    }
+
+    @Test
+    void testTypedValuesAreWrittenLikeTheTree() throws Exception {
+        // Converted as they are written: numbers, booleans, decimal and date text, values
+        // kept as text, defaults, and item fields overlapping each other
+        CompiledTransformationPlan plan = CompiledTransformationPlan.compile(configurationService.loadConfigurationFromJson("{"
+            + "\"name\":\"typed\","
+            + "\"propertyMappings\":["
+            + "{\"xmlPath\":\"order/count\",\"jsonPath\":\"count\",\"dataType\":\"integer\"},"
+            + "{\"xmlPath\":\"order/id\",\"jsonPath\":\"id\",\"dataType\":\"long\"},"
+            + "{\"xmlPath\":\"order/rate\",\"jsonPath\":\"rate\",\"dataType\":\"double\"},"
+            + "{\"xmlPath\":\"order/paid\",\"jsonPath\":\"paid\",\"dataType\":\"boolean\"},"
+            + "{\"xmlPath\":\"order/total\",\"jsonPath\":\"total\",\"dataType\":\"bigdecimal\"},"
+            + "{\"xmlPath\":\"order/tiny\",\"jsonPath\":\"tiny\",\"dataType\":\"bigdecimal\"},"
+            + "{\"xmlPath\":\"order/date\",\"jsonPath\":\"date\",\"dataType\":\"date\"},"
+            + "{\"xmlPath\":\"order/missing\",\"jsonPath\":\"priority\",\"dataType\":\"integer\",\"defaultValue\":\"5\"}],"
+            + "\"nestedPropertyMappings\":["
+            + "{\"xmlPath\":\"order/line\",\"jsonPath\":\"lines\",\"properties\":["
+            + "{\"xmlField\":\"@qty\",\"jsonField\":\"qty\",\"dataType\":\"int\",\"defaultValue\":1},"
+            + "{\"xmlField\":\"price\",\"jsonField\":\"amount.price\",\"dataType\":\"double\"},"
+            + "{\"xmlField\":\"shipped\",\"jsonField\":\"amount.shipped\",\"dataType\":\"date\"}]},"
+            + "{\"xmlPath\":\"order/line\",\"jsonPath\":\"overlapping\",\"properties\":["
+            + "{\"xmlField\":\"price\",\"jsonField\":\"amount.price\",\"dataType\":\"double\"},"
+            + "{\"xmlField\":\"@qty\",\"jsonField\":\"amount\",\"dataType\":\"int\"}]}]"
+            + "}"));
+        String xml = "<order><count>+42</count><id>9007199254740993</id><rate>1e-3</rate><paid>TRUE</paid>"
+                + "<total>0012.50</total><tiny>0.0000001</tiny><date>2024-02-29</date>"
+                + "<line qty=\"3\"><price>9.5</price><shipped>2024-01-31</shipped></line>"
+                + "<line qty=\"many\"><price>n/a</price><shipped>2024-02-30</shipped></line><line/></order>";
+
+        assertStreamedSameAsString(xml, plan, "typed values");
+
+        String json = transformer.transformXmlToJson(xml, plan, TransformationEngine.STAX);
+        assertTrue(json.contains("\"count\" : 42") && json.contains("\"id\" : 9007199254740993"), json);
+        assertTrue(json.contains("\"total\" : \"12.50\"") && json.contains("\"tiny\" : \"1E-7\""), json);
+        assertTrue(json.contains("\"qty\" : \"many\"") && json.contains("\"shipped\" : \"2024-02-30\""), json);
+    }
+
+    @Test
+    void testByteSourcesAndSinksMatchStringResult(@TempDir Path tempDir) throws Exception {
+        // Non-ASCII text in a declared single byte encoding has to be decoded by the parser
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+                + "<person><name>Zoë Müller</name><age>41</age><email>zoe@example.com</email></person>";
+        byte[] bytes = xml.getBytes(StandardCharsets.ISO_8859_1);
+        Path file = Files.write(tempDir.resolve("person.xml"), bytes);
+        CompiledTransformationPlan plan = configurationService.loadPlan("simple-person-config");
+
+        for (TransformationEngine engine : TransformationEngine.values()) {
+            String expected = transformer.transformXmlToJson(xml, plan, engine);
+            assertTrue(expected.contains("Zoë Müller"), "Name should be decoded with " + engine);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transformer.transformXmlToJson(new ByteArrayInputStream(bytes), plan, engine, out);
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8), "InputStream with " + engine);
+
+            out = new ByteArrayOutputStream();
+            transformer.transformXmlToJson(bytes, plan, engine, out);
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8), "byte[] with " + engine);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 4);
+            direct.put(new byte[] {1, 2, 3, 4}).put(bytes).flip().position(4);
+            StringWriter writer = new StringWriter();
+            transformer.transformXmlToJson(direct, plan, engine, writer);
+            assertEquals(expected, writer.toString(), "direct ByteBuffer with " + engine);
+            assertEquals(4, direct.position(), "Buffer position should be left unchanged");
+
+            writer = new StringWriter();
+            transformer.transformXmlToJson(file, plan, engine, writer);
+            assertEquals(expected, writer.toString(), "Path with " + engine);
+
+            writer = new StringWriter();
+            transformer.transformXmlToJson(xml, plan, engine, writer);
+            assertEquals(expected, writer.toString(), "String to Writer with " + engine);
+        }
+    }
+}
@@ -2,19 +2,38 @@ package com.bitsevn.transformer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 
 import com.bitsevn.transformer.model.TransformationConfig;
+import com.bitsevn.transformer.service.CompiledTransformationPlan;
 import com.bitsevn.transformer.service.ConfigurationService;
+import com.bitsevn.transformer.service.TransformationEngine;
 import com.bitsevn.transformer.service.XmlToJsonTransformer;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 @SpringBootTest
 public class TestDataPerformanceTest {
@@ -334,4 +353,125 @@ public class TestDataPerformanceTest {
         
         System.out.println("Repeated transformations - Average time: " + averageDuration + "ms");
     }
+
+    @Test
+    void testScaledCompanyEmployeesBenchmark() throws Exception {
+        // Run with -Dbenchmark.records=100000 for the full size benchmark
+        int employeeCount = Integer.getInteger("benchmark.records", 10000);
+        String xml = generateLargeCompanyEmployeesXml(employeeCount);
+        CompiledTransformationPlan plan = configurationService.loadPlan("company-employees-config");
+
+        for (TransformationEngine engine : TransformationEngine.values()) {
+            long startTime = System.currentTimeMillis();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            transformer.transformXmlToJson(xml, plan, engine, output);
+            long duration = System.currentTimeMillis() - startTime;
+
+            JsonNode result = new ObjectMapper().readTree(output.toByteArray());
+            assertEquals(employeeCount, result.get("allEmployees").size(), "Should extract all employees");
+            assertEquals(employeeCount, result.get("detailedEmployees").size(), "Should create detailed employees");
+            assertEquals("DEPT" + (employeeCount % 3 + 1),
+                    result.get("detailedEmployees").get(employeeCount - 1).get("deptCode").asText(),
+                    "Nested field paths should resolve for the last employee");
+
+            System.out.println("Scaled company employees benchmark (" + engine + ", " + employeeCount
+                    + " employees, " + xml.length() + " characters) completed in " + duration + "ms");
+        }
+    }
+
+    @Test
+    void testDeeplyNestedSubtreeConversionBenchmark() throws Exception {
+        // Jackson reads at most 1000 nesting levels by default
+        ObjectMapper objectMapper = new ObjectMapper(JsonFactory.builder()
+                .streamReadConstraints(StreamReadConstraints.builder().maxNestingDepth(Integer.MAX_VALUE).build())
+                .build());
+        for (int depth : new int[] {10, 100, 5000}) {
+            String xml = generateNestedXml(depth);
+            int iterations = Math.max(2, 2000 / depth);
+
+            String iterative = null;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                iterative = transformer.transformXmlToGenericJson(xml);
+            }
+            long iterativeMicros = (System.nanoTime() - startTime) / 1000 / iterations;
+            assertEquals(String.valueOf(depth), objectMapper.readTree(iterative)
+                    .at("/level" + "/level".repeat(depth - 2) + "/name").asText(), "Innermost object should be converted");
+
+            String recursive = null;
+            String recursiveTime;
+            try {
+                startTime = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    recursive = convertRecursively(xml);
+                }
+                recursiveTime = (System.nanoTime() - startTime) / 1000 / iterations + "us";
+                assertEquals(objectMapper.readTree(recursive), objectMapper.readTree(iterative),
+                        "Iterative conversion should match recursive conversion");
+            } catch (StackOverflowError e) {
+                recursiveTime = "StackOverflowError";
+            }
+
+            // Pretty printed output grows with the square of the depth, from indentation alone
+            System.out.println("Subtree conversion benchmark (depth " + depth + ", " + iterative.length()
+                    + " characters of JSON): iterative " + iterativeMicros + "us, recursive " + recursiveTime);
+        }
+
+        XmlToJsonTransformer limited = new XmlToJsonTransformer(1, 100);
+        assertThrows(Exception.class, () -> limited.transformXmlToGenericJson(generateNestedXml(5000)),
+                "Subtrees deeper than the maximum depth should fail to convert");
+    }
+
+    private String generateNestedXml(int depth) {
+        StringBuilder xml = new StringBuilder();
+        for (int i = 1; i < depth; i++) {
+            xml.append("<level><name>").append(i + 1).append("</name><tag>a</tag><tag>b</tag>");
+        }
+        xml.append("<level/>");
+        for (int i = 1; i < depth; i++) {
+            xml.append("</level>");
+        }
+        return xml.toString();
+    }
+
+    /**
+     * Reference conversion recursing once per element level, as the transformer used to
+     */
+    private String convertRecursively(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Element root = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml))).getDocumentElement();
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        result.set(root.getNodeName(), convertRecursively(root));
+        return new ObjectMapper().writeValueAsString(result);
+    }
+
+    private JsonNode convertRecursively(Element element) {
+        Node first = element.getFirstChild();
+        if (first == null) {
+            return JsonNodeFactory.instance.textNode(element.hasAttribute("value")
+                    ? element.getAttribute("value") : element.getTextContent());
+        }
+        if (first.getNextSibling() == null && first.getNodeType() == Node.TEXT_NODE) {
+            return JsonNodeFactory.instance.textNode(first.getNodeValue());
+        }
+        Map<String, List<Element>> groups = new LinkedHashMap<>();
+        for (Node child = first; child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                groups.computeIfAbsent(child.getNodeName(), name -> new ArrayList<>()).add((Element) child);
+            }
+        }
+        ObjectNode object = JsonNodeFactory.instance.objectNode();
+        for (Map.Entry<String, List<Element>> group : groups.entrySet()) {
+            if (group.getValue().size() == 1) {
+                object.set(group.getKey(), convertRecursively(group.getValue().get(0)));
+            } else {
+                ArrayNode array = object.putArray(group.getKey());
+                for (Element child : group.getValue()) {
+                    array.add(convertRecursively(child));
+                }
+            }
+        }
+        return object;
+    }
 }
@@ -0,0 +1,130 @@
+package com.bitsevn.transformer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.StreamUtils;
+
+import com.bitsevn.transformer.model.TransformationConfig;
+import com.bitsevn.transformer.service.ConfigurationService;
+import com.bitsevn.transformer.service.MongoConfigurationService;
+import com.bitsevn.transformer.service.XmlToJsonTransformer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class TransformerControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private XmlToJsonTransformer transformer;
+
+    @Autowired
+    private ConfigurationService configurationService;
+
+    @Autowired
+    private MongoConfigurationService mongoConfigurationService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String loadFile(String path) throws Exception {
+        ClassPathResource resource = new ClassPathResource(path);
+        return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    private JsonNode expectedResult(String xml, String configName) throws Exception {
+        return objectMapper.readTree(transformer.transformXmlToJson(xml, configurationService.loadPlan(configName)));
+    }
+
+    @Test
+    void testNamedConfigurationEndpointReturnsJsonObject() throws Exception {
+        String xml = loadFile("test-data/complex-order.xml");
+
+        String response = mockMvc.perform(post("/api/transform/complex-order-config")
+                        .contentType(MediaType.APPLICATION_XML).content(xml))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        JsonNode result = objectMapper.readTree(response).get("result");
+        assertTrue(result.isObject(), "Result should be embedded as a JSON object");
+        assertEquals(expectedResult(xml, "complex-order-config"), result);
+    }
+
+    @Test
+    void testInlineConfigurationEndpointReturnsJsonObject() throws Exception {
+        String xml = loadFile("test-data/simple-person.xml");
+        String config = loadFile("configs/simple-person-config.json");
+        String request = objectMapper.writeValueAsString(Map.of("xml", xml, "config", config));
+
+        String response = mockMvc.perform(post("/api/transform")
+                        .contentType(MediaType.APPLICATION_JSON).content(request))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        JsonNode result = objectMapper.readTree(response).get("result");
+        assertTrue(result.isObject(), "Result should be embedded as a JSON object, not an escaped string");
+        assertEquals(expectedResult(xml, "simple-person-config"), result);
+    }
+
+    @Test
+    void testXPathStatsEndpointReportsConfigurationExpressions() throws Exception {
+        String response = mockMvc.perform(get("/api/stats/xpath/simple-person-config"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        JsonNode stats = objectMapper.readTree(response);
+        assertEquals("simple-person-config", stats.get("configName").asText());
+        assertTrue(stats.get("expressions").isArray(), "Expressions should be listed");
+
+        mockMvc.perform(get("/api/stats/xpath/no-such-config"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testMongoStatsEndpointsReportMongoConfigurations() throws Exception {
+        TransformationConfig config = configurationService.loadConfigurationFromJson("{"
+                + "\"name\":\"mongo-stats\","
+                + "\"propertyMappings\":["
+                + "{\"xmlPath\":\"order/count\",\"jsonPath\":\"count\",\"dataType\":\"integer\"},"
+                + "{\"xmlPath\":\"count(/order/line)\",\"jsonPath\":\"lines\",\"xpath\":true}]}");
+        mongoConfigurationService.cacheConfiguration("mongo-stats-config", config);
+        try {
+            mockMvc.perform(post("/api/mongo/transform/mongo-stats-config")
+                            .contentType(MediaType.APPLICATION_XML).content("<order><count>N/A</count><line/></order>"))
+                    .andExpect(status().isOk());
+
+            JsonNode conversions = objectMapper.readTree(mockMvc.perform(get("/api/mongo/stats/conversions/mongo-stats-config"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8));
+            assertEquals("mongo-stats-config", conversions.get("configName").asText());
+            assertEquals(1, conversions.at("/mappings/0/fallbacks").asInt(), "The MongoDB plan's counters should be reported");
+
+            JsonNode xpath = objectMapper.readTree(mockMvc.perform(get("/api/mongo/stats/xpath/mongo-stats-config"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8));
+            assertEquals(1, xpath.at("/expressions/0/evaluations").asInt());
+
+            // File and MongoDB configurations are separate
+            mockMvc.perform(get("/api/stats/conversions/mongo-stats-config"))
+                    .andExpect(status().isNotFound());
+        } finally {
+            mongoConfigurationService.removeCachedConfiguration("mongo-stats-config");
+        }
+    }
+}